@@ -4,11 +4,18 @@ import lombok.Getter;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import com.cfm.ai.AIClient;
+import com.cfm.ai.ResponseCache;
 import com.cfm.command.CommandManager;
 import com.cfm.database.DatabaseManager;
 import com.cfm.database.dao.BuildDAO;
 import com.cfm.database.dao.ConversationDAO;
+import com.cfm.database.dao.ResponseCacheDAO;
+import com.cfm.schema.WorldEditToVoxelParser;
 import com.cfm.web.WebServer;
+import com.cfm.worldedit.BuildCompiler;
+import com.cfm.worldedit.PlacementScheduler;
+import com.cfm.worldedit.PreviewManager;
+import com.cfm.worldedit.UndoManager;
 
 public class CFM extends JavaPlugin {
 
@@ -23,7 +30,15 @@ public class CFM extends JavaPlugin {
     @Getter
     private AIClient aiClient;
     @Getter
+    private ResponseCache responseCache;
+    @Getter
     private WebServer webServer;
+    @Getter
+    private PlacementScheduler placementScheduler;
+    @Getter
+    private UndoManager undoManager;
+    @Getter
+    private PreviewManager previewManager;
 
     @Override
     public void onEnable() {
@@ -42,6 +57,16 @@ public class CFM extends JavaPlugin {
 
         // Initialize AI Client
         aiClient = new AIClient();
+        responseCache = new ResponseCache(new ResponseCacheDAO(databaseManager));
+
+        // Start tick-budgeted block placement, journaling overwritten blocks for undo
+        undoManager = new UndoManager();
+        placementScheduler = new PlacementScheduler();
+        placementScheduler.start();
+
+        // Client-side build previews, dropped when the player leaves or changes world
+        previewManager = new PreviewManager();
+        getServer().getPluginManager().registerEvents(previewManager, this);
 
         // Register Commands
         new CommandManager().registerCommands();
@@ -57,10 +82,26 @@ public class CFM extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        if (placementScheduler != null) {
+            placementScheduler.stop();
+        }
+
+        if (undoManager != null) {
+            undoManager.clear();
+        }
+
+        if (previewManager != null) {
+            previewManager.clear();
+        }
+
         if (webServer != null) {
             webServer.stop();
         }
 
+        AIClient.shutdown();
+        BuildCompiler.shutdown();
+        WorldEditToVoxelParser.shutdown();
+
         if (databaseManager != null) {
             databaseManager.close();
         }
@@ -73,6 +114,15 @@ public class CFM extends JavaPlugin {
         if (aiClient != null) {
             aiClient = new AIClient();
         }
+        if (responseCache != null) {
+            responseCache.loadSettings();
+        }
+        if (placementScheduler != null) {
+            placementScheduler.loadSettings();
+        }
+        if (undoManager != null) {
+            undoManager.loadSettings();
+        }
         if (webServer != null) {
             webServer.stop();
             webServer = new WebServer();
@@ -0,0 +1,12 @@
+package com.cfm.ai;
+
+/**
+ * Thrown when the AI provider's request queue is full and a request is turned
+ * away without being sent. The message is meant for the player.
+ */
+public class AIBusyException extends RuntimeException {
+
+    public AIBusyException(String message) {
+        super(message);
+    }
+}
@@ -1,47 +1,359 @@
 package com.cfm.ai;
 
-import lombok.Getter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import com.cfm.CFM;
+import com.cfm.util.Hashing;
 import com.cfm.util.Logger;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
+/**
+ * Client for an OpenAI-compatible chat completions endpoint
+ * ({@code ai.endpoint_url}). Every request runs on a virtual thread and goes
+ * through one HTTP/2 client shared across reloads, so connections are pooled
+ * and a slow model never ties up the common pool that Bukkit async tasks and
+ * the web server rely on.
+ * <p>
+ * Requests go through the provider's {@link RequestLimiter}, and a request
+ * identical to one already in flight (same model and messages) joins it
+ * instead of being sent again.
+ * <p>
+ * Failures are logged and complete the future with null, which callers treat
+ * as "the AI did not answer". Requests turned away by the limiter fail with
+ * {@link AIBusyException} instead.
+ */
 public class AIClient {
 
-    @Getter
-    private Object openAI; // Placeholder - will be initialized when API is properly integrated
+    private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("CFM-AI-", 0).factory());
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(EXECUTOR)
+            .build();
+    // By endpoint host, so limits hold across reloads and requests still in flight
+    private static final Map<String, RequestLimiter> LIMITERS = new ConcurrentHashMap<>();
+    private static final AtomicLong coalesced = new AtomicLong();
+
+    private final URI endpoint;
+    private final String apiKey;
     private final String modelName;
+    // Until the response headers arrive
+    private final Duration requestTimeout;
+    // Whole response, streamed or not
+    private final Duration responseTimeout;
+    private final RequestLimiter limiter;
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
 
     public AIClient() {
-        String endpoint = CFM.getInstance().getConfig().getString("ai.endpoint_url");
-        String apiKey = CFM.getInstance().getConfig().getString("ai.api_key");
+        String url = CFM.getInstance().getConfig().getString("ai.endpoint_url", "");
+        this.endpoint = URI.create(url.endsWith("/") ? url + "chat/completions" : url + "/chat/completions");
+        this.apiKey = CFM.getInstance().getConfig().getString("ai.api_key", "");
         this.modelName = CFM.getInstance().getConfig().getString("ai.model_name");
+        this.requestTimeout = Duration.ofSeconds(
+                Math.max(1, CFM.getInstance().getConfig().getInt("ai.request_timeout_seconds", 30)));
+        this.responseTimeout = Duration.ofSeconds(
+                Math.max(1, CFM.getInstance().getConfig().getInt("ai.response_timeout_seconds", 300)));
 
-        // For now, we'll just store the configuration values
-        // Real initialization will happen once we resolve the dependency issues
-        this.openAI = null;
+        String provider = endpoint.getAuthority() != null ? endpoint.getAuthority() : url;
+        RequestLimiter existing = LIMITERS.get(provider);
+        if (existing != null) {
+            existing.loadSettings();
+            this.limiter = existing;
+        } else {
+            this.limiter = LIMITERS.computeIfAbsent(provider, RequestLimiter::new);
+        }
     }
 
-    // Mock implementation that simulates AI responses
+    /**
+     * Sends the conversation and completes with the whole response text.
+     *
+     * @param messages the system prompt first, then user messages
+     */
     public CompletableFuture<String> chat(List<String> messages) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Simulate AI processing delay
-                Thread.sleep(1000);
+        return call(messages, null);
+    }
+
+    /**
+     * Like {@link #chat}, but streams the response over server-sent events,
+     * handing each piece to {@code onChunk} as it arrives, on the thread
+     * reading it. The future still completes with the whole text, or null
+     * if the request failed before anything arrived.
+     */
+    public CompletableFuture<String> chatStream(List<String> messages, Consumer<String> onChunk) {
+        return call(messages, onChunk);
+    }
+
+    /**
+     * Whether a new request would wait for the rate or concurrency limit.
+     */
+    public boolean isBusy() {
+        return limiter.isSaturated();
+    }
+
+    public int getQueuedCount() {
+        return limiter.getQueuedCount();
+    }
+
+    public String getStats() {
+        return limiter.getStats() + ", " + coalesced.get() + " joined in flight";
+    }
 
-                // Return a mock response that follows the expected format
-                // This is a placeholder until the real AI integration is working
-                String mockResponse = "[{\"x\":0,\"y\":0,\"z\":0,\"type\":\"minecraft:oak_planks\"}," +
-                        "{\"x\":1,\"y\":0,\"z\":0,\"type\":\"minecraft:oak_planks\"}," +
-                        "{\"x\":0,\"y\":1,\"z\":0,\"type\":\"minecraft:oak_fence\"}]";
+    private CompletableFuture<String> call(List<String> messages, Consumer<String> onChunk) {
+        String key = Hashing.sha256(modelName + '\0' + String.join("\0", messages));
+        while (true) {
+            InFlight created = new InFlight();
+            created.join(onChunk);
+            InFlight existing = inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                limiter.submit(() -> onChunk == null ? send(messages) : stream(messages, created::chunk))
+                        .whenComplete((response, error) -> created.finish(key, response, error));
+                return created.result.copy();
+            }
+            // A request that just finished is removed right after closing; retry until it is gone
+            if (existing.join(onChunk)) {
+                coalesced.incrementAndGet();
+                Logger.debug("Joined an identical AI request already in flight");
+                return existing.result.copy();
+            }
+            Thread.onSpinWait();
+        }
+    }
 
-                return mockResponse;
+    private CompletableFuture<String> send(List<String> messages) {
+        long start = System.nanoTime();
+        return HTTP.sendAsync(request(messages, false), HttpResponse.BodyHandlers.ofString())
+                .orTimeout(responseTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        Logger.error("AI request failed with HTTP " + response.statusCode() + ": "
+                                + abbreviate(response.body()));
+                        return null;
+                    }
+                    JsonObject body = JsonParser.parseString(response.body()).getAsJsonObject();
+                    String content = text(body, "message");
+                    Logger.debug(String.format("AI response in %.1fs, %d chars",
+                            (System.nanoTime() - start) / 1e9, content != null ? content.length() : 0));
+                    return content;
+                })
+                .exceptionally(error -> {
+                    Logger.error("AI request failed", error);
+                    return null;
+                });
+    }
+
+    private CompletableFuture<String> stream(List<String> messages, Consumer<String> onChunk) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        EXECUTOR.execute(() -> {
+            long start = System.nanoTime();
+            StringBuilder text = new StringBuilder();
+            CompletableFuture<Void> deadline = new CompletableFuture<Void>()
+                    .orTimeout(responseTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            try {
+                HttpResponse<InputStream> response = HTTP.send(request(messages, true),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream body = response.body()) {
+                    if (response.statusCode() != 200) {
+                        Logger.error("AI request failed with HTTP " + response.statusCode() + ": "
+                                + abbreviate(new String(body.readNBytes(4096), StandardCharsets.UTF_8)));
+                        result.complete(null);
+                        return;
+                    }
+                    // A stalled stream is cut off by closing it under the reader
+                    deadline.whenComplete((done, error) -> {
+                        if (error != null)
+                            closeQuietly(body);
+                    });
+                    readEvents(body, chunk -> {
+                        if (text.isEmpty())
+                            Logger.debug(String.format("AI first token after %.1fs",
+                                    (System.nanoTime() - start) / 1e9));
+                        text.append(chunk);
+                        onChunk.accept(chunk);
+                    });
+                }
+                Logger.debug(String.format("AI response streamed in %.1fs, %d chars",
+                        (System.nanoTime() - start) / 1e9, text.length()));
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                Logger.error("AI Chat interrupted!", e);
-                return null;
+            } catch (Exception e) {
+                Logger.error(deadline.isCompletedExceptionally()
+                        ? "AI stream timed out after " + responseTimeout.toSeconds() + "s"
+                        : "AI stream failed after " + text.length() + " chars", e);
+            } finally {
+                deadline.complete(null);
             }
+            // Whatever arrived before a failure is still returned
+            result.complete(text.isEmpty() ? null : text.toString());
         });
+        return result;
+    }
+
+    /**
+     * Virtual-thread executor for work that waits on the AI, or on anything
+     * else slow enough to keep off the common pool.
+     */
+    public static ExecutorService getExecutor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Closes the shared HTTP client and aborts requests still in flight.
+     */
+    public static void shutdown() {
+        HTTP.shutdownNow();
+        EXECUTOR.shutdownNow();
+    }
+
+    private HttpRequest request(List<String> messages, boolean stream) {
+        JsonArray chat = new JsonArray();
+        for (int i = 0; i < messages.size(); i++) {
+            JsonObject message = new JsonObject();
+            message.addProperty("role", i == 0 ? "system" : "user");
+            message.addProperty("content", messages.get(i));
+            chat.add(message);
+        }
+        JsonObject body = new JsonObject();
+        body.addProperty("model", modelName);
+        body.add("messages", chat);
+        body.addProperty("stream", stream);
+
+        return HttpRequest.newBuilder(endpoint)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("Accept", stream ? "text/event-stream" : "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+    }
+
+    /**
+     * Reads {@code data:} events until {@code [DONE]} or the end of the
+     * stream, passing on each delta's content.
+     */
+    private static void readEvents(InputStream body, Consumer<String> onChunk) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("data:"))
+                continue;
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]"))
+                return;
+            if (data.isEmpty())
+                continue;
+            JsonObject event = JsonParser.parseString(data).getAsJsonObject();
+            if (event.has("error"))
+                throw new IOException("AI stream error: " + event.get("error"));
+            String content = text(event, "delta");
+            if (content != null && !content.isEmpty())
+                onChunk.accept(content);
+        }
+    }
+
+    /**
+     * {@code choices[0].<field>.content}, or null if absent.
+     */
+    private static String text(JsonObject body, String field) {
+        JsonArray choices = body.getAsJsonArray("choices");
+        if (choices == null || choices.isEmpty())
+            return null;
+        JsonElement message = choices.get(0).getAsJsonObject().get(field);
+        if (message == null || !message.isJsonObject())
+            return null;
+        JsonElement content = message.getAsJsonObject().get("content");
+        return content == null || content.isJsonNull() ? null : content.getAsString();
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() > 500 ? text.substring(0, 500) + "..." : text;
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * One request on the wire and everyone waiting on it. Callers that join
+     * while it streams get the text so far, then each new piece; callers
+     * that want chunks from a request sent whole get the text at the end.
+     */
+    private class InFlight {
+
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final StringBuilder text = new StringBuilder();
+        private final List<Consumer<String>> listeners = new ArrayList<>(1);
+        private boolean closed;
+
+        /**
+         * @return false if the request already finished, so there is nothing to join
+         */
+        synchronized boolean join(Consumer<String> onChunk) {
+            if (closed)
+                return false;
+            if (onChunk != null) {
+                if (!text.isEmpty())
+                    deliver(onChunk, text.toString());
+                listeners.add(onChunk);
+            }
+            return true;
+        }
+
+        synchronized void chunk(String chunk) {
+            text.append(chunk);
+            listeners.removeIf(listener -> !deliver(listener, chunk));
+        }
+
+        void finish(String key, String response, Throwable error) {
+            List<Consumer<String>> unstreamed;
+            synchronized (this) {
+                closed = true;
+                unstreamed = text.isEmpty() ? List.copyOf(listeners) : List.of();
+            }
+            inFlight.remove(key, this);
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            if (response != null)
+                unstreamed.forEach(listener -> deliver(listener, response));
+            result.complete(response);
+        }
+
+        // One caller's failing listener must not cut the response off for the others
+        private boolean deliver(Consumer<String> listener, String chunk) {
+            try {
+                listener.accept(chunk);
+                return true;
+            } catch (RuntimeException e) {
+                Logger.error("AI response listener failed", e);
+                return false;
+            }
+        }
     }
 }
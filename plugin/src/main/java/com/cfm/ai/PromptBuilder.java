@@ -3,6 +3,7 @@ package com.cfm.ai;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.cfm.util.Hashing;
 import com.cfm.util.Logger;
 
 public class PromptBuilder {
@@ -69,7 +70,7 @@ public class PromptBuilder {
               "blocks": [
                 {
                   "type": "minecraft:block_id[states]",
-                  "pattern": "solid|hollow|box|line|flat|single|door",
+                  "pattern": "solid|hollow|box|line|flat|single|door|sphere|dome|cylinder|pyramid",
                   "x1": 0, "y1": 0, "z1": 0,
                   "x2": 5, "y2": 5, "z2": 5
                 }
@@ -81,14 +82,22 @@ public class PromptBuilder {
             - solid: Fill entire volume
             - hollow: Four walls only (no floor/ceiling)
             - box: Enclosed room (walls+floor+ceiling)
-            - line: Straight line
+            - line: Straight line from x1,y1,z1 to x2,y2,z2 (diagonals allowed)
             - flat: Single-layer plane
             - door: For door blocks
+            - sphere: Sphere/ellipsoid filling the bounds
+            - dome: Half sphere standing on y1 (roofs, domes)
+            - cylinder: Vertical round column filling the bounds (towers, pillars)
+            - pyramid: Stepped pyramid standing on y1 (roofs, monuments)
+            - Prefix sphere/dome/cylinder/pyramid with "hollow_" for just the shell (e.g. hollow_dome)
 
             **ALWAYS validate**: Doors have 2 entries, crops on farmland, stairs have facing, directional blocks face correctly.
             **OUTPUT JSON ONLY** - No preamble, no explanation.
             """;
 
+    // Changes whenever the system prompt does, so responses cached under an older prompt are never reused
+    public static final String SYSTEM_PROMPT_HASH = Hashing.sha256(SYSTEM_PROMPT);
+
     public static List<String> buildPrompt(String userPrompt, String context) {
         List<String> messages = new ArrayList<>();
         messages.add(SYSTEM_PROMPT);
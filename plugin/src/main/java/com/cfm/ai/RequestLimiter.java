@@ -0,0 +1,157 @@
+package com.cfm.ai;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.cfm.CFM;
+
+/**
+ * Keeps requests to one AI provider within its limits: a token bucket caps
+ * how many start per minute (with a burst allowance), and at most
+ * {@code max_concurrent} are in flight at once. Requests over either limit
+ * wait their turn in FIFO order; once {@code max_queued} are waiting, more
+ * fail with {@link AIBusyException} instead of piling up behind a slow or
+ * throttled provider.
+ * <p>
+ * Nothing blocks while waiting: a queued request is started by whichever
+ * request finishes, or by a timer when it is only waiting for a token.
+ */
+public class RequestLimiter {
+
+    private final String provider;
+    private final ArrayDeque<CompletableFuture<Void>> queue = new ArrayDeque<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Tokens per nanosecond, or 0 for no rate limit
+    private double refillRate;
+    private double burst;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private int maxConcurrent;
+    private int maxQueued;
+    private int active;
+    private boolean timerScheduled;
+
+    public RequestLimiter(String provider) {
+        this.provider = provider;
+        loadSettings();
+        this.tokens = burst;
+    }
+
+    public void loadSettings() {
+        synchronized (this) {
+            refill();
+            int perMinute = Math.max(0, CFM.getInstance().getConfig().getInt("ai.rate_limit.requests_per_minute", 30));
+            this.refillRate = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.burst = Math.max(1, CFM.getInstance().getConfig().getInt("ai.rate_limit.burst", 5));
+            this.tokens = Math.min(tokens, burst);
+            this.maxConcurrent = CFM.getInstance().getConfig().getInt("ai.rate_limit.max_concurrent", 4);
+            this.maxQueued = Math.max(0, CFM.getInstance().getConfig().getInt("ai.rate_limit.max_queued", 32));
+        }
+        // Raised limits apply to requests already waiting
+        drain();
+    }
+
+    /**
+     * Starts {@code call} once the limits allow, releasing its slot when the
+     * future it returns completes.
+     *
+     * @return the call's result, or a future failed with {@link AIBusyException}
+     *         if the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<Void> turn = new CompletableFuture<>();
+        synchronized (this) {
+            if (queue.isEmpty() && tryStart()) {
+                turn.complete(null);
+            } else if (queue.size() >= maxQueued) {
+                rejected.incrementAndGet();
+                return CompletableFuture.failedFuture(new AIBusyException(
+                        "The AI is busy with " + (active + queue.size()) + " requests, try again in a moment."));
+            } else {
+                queue.add(turn);
+                delayed.incrementAndGet();
+            }
+        }
+        // Outside the lock, as a ready turn starts its call right away
+        if (!turn.isDone())
+            drain();
+        return turn.thenCompose(ready -> call.get())
+                .whenComplete((result, error) -> release());
+    }
+
+    /**
+     * Whether a request made now would have to wait.
+     */
+    public synchronized boolean isSaturated() {
+        refill();
+        return !queue.isEmpty() || (maxConcurrent > 0 && active >= maxConcurrent)
+                || (refillRate > 0 && tokens < 1);
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    public synchronized String getStats() {
+        return String.format("%s: %d in flight, %d waiting, %d started, %d delayed, %d turned away", provider,
+                active, queue.size(), started.get(), delayed.get(), rejected.get());
+    }
+
+    private void release() {
+        synchronized (this) {
+            active--;
+        }
+        drain();
+    }
+
+    /**
+     * Starts queued requests while the limits allow, and sets a timer for
+     * the next token if the head of the queue is only waiting on the rate.
+     */
+    private void drain() {
+        List<CompletableFuture<Void>> ready = new ArrayList<>();
+        synchronized (this) {
+            while (!queue.isEmpty() && tryStart())
+                ready.add(queue.poll());
+            if (!queue.isEmpty() && !timerScheduled && (maxConcurrent <= 0 || active < maxConcurrent)) {
+                timerScheduled = true;
+                long wait = (long) Math.ceil((1 - tokens) / refillRate);
+                CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, AIClient.getExecutor()).execute(() -> {
+                    synchronized (this) {
+                        timerScheduled = false;
+                    }
+                    drain();
+                });
+            }
+        }
+        ready.forEach(turn -> turn.complete(null));
+    }
+
+    private boolean tryStart() {
+        if (maxConcurrent > 0 && active >= maxConcurrent)
+            return false;
+        if (refillRate > 0) {
+            refill();
+            if (tokens < 1)
+                return false;
+            tokens--;
+        }
+        active++;
+        started.incrementAndGet();
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * refillRate);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,127 @@
+package com.cfm.ai;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cfm.CFM;
+import com.cfm.database.dao.ResponseCacheDAO;
+import com.cfm.model.CachedResponse;
+import com.cfm.util.Hashing;
+import com.cfm.util.Logger;
+
+/**
+ * AI responses to fresh prompts, so a prompt players keep asking for ("small
+ * oak house") costs one model call. Keyed by the normalized prompt, model,
+ * thinking level and system prompt hash; hot entries live in an in-memory
+ * LRU, everything in SQLite until its TTL runs out. Only responses that
+ * parsed as builds are stored, and prompts with earlier iterations as
+ * context are never cached, since their response depends on that context.
+ */
+public class ResponseCache {
+
+    private final ResponseCacheDAO dao;
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong databaseHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private Map<String, CachedResponse> memory;
+    private boolean enabled;
+    private long ttlMillis;
+
+    public ResponseCache(ResponseCacheDAO dao) {
+        this.dao = dao;
+        loadSettings();
+        int pruned = dao.deleteOlderThan(System.currentTimeMillis() - ttlMillis);
+        if (pruned > 0)
+            Logger.debug("Pruned " + pruned + " expired cached AI responses");
+    }
+
+    public synchronized void loadSettings() {
+        this.enabled = CFM.getInstance().getConfig().getBoolean("ai.cache.enabled", true);
+        this.ttlMillis = TimeUnit.HOURS.toMillis(
+                Math.max(1, CFM.getInstance().getConfig().getLong("ai.cache.ttl_hours", 168)));
+        int maxEntries = Math.max(1, CFM.getInstance().getConfig().getInt("ai.cache.memory_entries", 256));
+        this.memory = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Cache key for a prompt sent without context, or null if caching is off.
+     */
+    public String keyFor(String prompt) {
+        if (!enabled)
+            return null;
+        String model = CFM.getInstance().getConfig().getString("ai.model_name", "");
+        String thinking = CFM.getInstance().getConfig().getString("ai.thinking_level", "");
+        return Hashing.sha256(model + '\n' + thinking + '\n' + PromptBuilder.SYSTEM_PROMPT_HASH + '\n'
+                + normalize(prompt));
+    }
+
+    /**
+     * @return the cached response, or null on a miss or if it has expired
+     */
+    public String get(String key) {
+        long notBefore = System.currentTimeMillis() - ttlMillis;
+        synchronized (this) {
+            CachedResponse cached = memory.get(key);
+            if (cached != null && cached.getCreatedAt() >= notBefore) {
+                memoryHits.incrementAndGet();
+                return cached.getResponse();
+            }
+        }
+
+        CachedResponse cached = dao.getResponse(key, notBefore);
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        databaseHits.incrementAndGet();
+        synchronized (this) {
+            // Keeps its original age, so a hot entry still expires on time
+            memory.put(key, cached);
+        }
+        return cached.getResponse();
+    }
+
+    public void put(String key, String response) {
+        CachedResponse cached = CachedResponse.builder()
+                .cacheKey(key)
+                .response(response)
+                .createdAt(System.currentTimeMillis())
+                .build();
+        synchronized (this) {
+            memory.put(key, cached);
+        }
+        dao.putResponse(cached);
+    }
+
+    public String getStats() {
+        int size;
+        synchronized (this) {
+            size = memory.size();
+        }
+        long hits = memoryHits.get() + databaseHits.get();
+        long lookups = hits + misses.get();
+        return String.format("%.1f%% hit rate (%d memory hits, %d disk hits, %d misses), %d in memory",
+                lookups == 0 ? 0 : hits * 100.0 / lookups, memoryHits.get(), databaseHits.get(), misses.get(), size);
+    }
+
+    /**
+     * Lower case, single spaces, no surrounding whitespace or trailing
+     * punctuation, so "Small  oak house!" and "small oak house" share a key.
+     */
+    static String normalize(String prompt) {
+        String normalized = prompt.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        int end = normalized.length();
+        while (end > 0 && ".!?".indexOf(normalized.charAt(end - 1)) >= 0)
+            end--;
+        return normalized.substring(0, end).trim();
+    }
+}
@@ -1,12 +1,28 @@
 package com.cfm.command;
 
 import com.cfm.CFM;
+import com.cfm.ai.AIBusyException;
+import com.cfm.ai.AIClient;
+import com.cfm.model.Build;
 import com.cfm.model.Conversation;
+import com.cfm.schema.BinaryVoxelSchema;
+import com.cfm.schema.IncrementalSchemaParser;
+import com.cfm.schema.SpongeSchematicReader;
 import com.cfm.schema.VoxelSchemaParser;
 import com.cfm.schema.WorldEditToVoxelParser;
 import com.cfm.service.ConversationService;
 import com.cfm.util.Logger;
 import com.cfm.worldedit.BlockPlacementEngine;
+import com.cfm.worldedit.BlockStateCache;
+import com.cfm.worldedit.BuildCache;
+import com.cfm.worldedit.BuildRandom;
+import com.cfm.worldedit.BuildRejectedException;
+import com.cfm.worldedit.PlacementJob;
+import com.cfm.worldedit.PlacementScheduler;
+import com.cfm.worldedit.PreviewManager;
+import com.cfm.worldedit.RollbackJob;
+import com.cfm.worldedit.ScheduledJob;
+import com.cfm.worldedit.StreamingPlacement;
 import com.cfm.worldedit.WorldEditSelectionHelper;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.Region;
@@ -20,10 +36,21 @@ import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -54,10 +81,20 @@ public class CFMCommand implements CommandExecutor, TabCompleter {
         String subCommand = args[0].toLowerCase();
         switch (subCommand) {
             case "tool" -> handleTool(player);
-            case "create" -> handleCreate(player, args);
-            case "parse" -> handleParse(player);
+            case "create" -> handleCreate(player, args, false);
+            case "preview" -> handleCreate(player, args, true);
+            case "refine" -> handleRefine(player, args);
+            case "confirm" -> handleConfirm(player);
+            case "cancel" -> handleCancel(player);
+            case "parse" -> handleParse(player, args);
             case "jsonparse" -> handleJsonParse(player, args);
+            case "load" -> handleLoad(player, args);
+            case "convert" -> handleConvert(player, args);
+            case "import" -> handleImport(player, args);
             case "list" -> handleList(player);
+            case "stats" -> handleStats(player);
+            case "queue" -> handleQueue(player);
+            case "undo" -> handleUndo(player);
             case "reload" -> handleReload(player);
             default -> player.sendMessage("§8[§bCFM§8] §cUnknown subcommand. Use §f/cfm help");
         }
@@ -71,9 +108,9 @@ public class CFMCommand implements CommandExecutor, TabCompleter {
         player.sendMessage("§8[§bCFM§8] §aProvided WorldEdit wand. §7Use left/right click to select a region.");
     }
 
-    private void handleCreate(Player player, String[] args) {
+    private void handleCreate(Player player, String[] args, boolean preview) {
         if (args.length < 2) {
-            player.sendMessage("§8[§bCFM§8] §cUsage: §f/cfm create <prompt>");
+            player.sendMessage("§8[§bCFM§8] §cUsage: §f/cfm " + (preview ? "preview" : "create") + " <prompt>");
             return;
         }
 
@@ -88,51 +125,269 @@ public class CFMCommand implements CommandExecutor, TabCompleter {
         BlockVector3 origin = region.getMinimumPoint();
 
         player.sendMessage("§8[§bCFM§8] §eThinking... §7Generating your structure...");
+        sendAIBusyNotice(player);
 
         Conversation conv = Conversation.builder()
                 .userUuid(player.getUniqueId().toString())
                 .userUsername(player.getName())
                 .title(prompt.length() > 30 ? prompt.substring(0, 30) + "..." : prompt)
                 .status(Conversation.ConversationStatus.ACTIVE)
+                // Only placed builds record where they are, so /cfm refine never diffs against a preview
+                .metadata(preview ? null : ConversationService.createMetadata(player.getWorld().getName(), origin))
                 .build();
 
         int convId = CFM.getInstance().getConversationDAO().createConversation(conv);
+        BuildRandom random = BuildRandom.forConversation(convId);
 
-        conversationService.sendMessage(convId, prompt).thenAccept(response -> {
+        if (!preview && CFM.getInstance().getConfig().getBoolean("build.streaming.enabled", true)) {
+            streamCreate(player, convId, prompt, origin, random);
+            return;
+        }
+
+        conversationService.ask(convId, prompt, null).whenComplete((reply, error) -> {
+            String response = reply != null ? reply.getText() : null;
             if (response == null) {
-                player.sendMessage("§8[§bCFM§8] §cAI failed to generate a build. Try again.");
+                sendAIFailure(player, error);
                 return;
             }
 
             try {
-                VoxelSchemaParser.BuildSchema schema = VoxelSchemaParser.parseFullSchema(response);
-                if (schema.getBlocks().isEmpty()) {
+                BuildCache.Entry build = reply.getBuild();
+                if (build == null) {
                     player.sendMessage("§8[§dAI§8] §f" + response);
+                } else if (preview) {
+                    PreviewManager.Preview shown = CFM.getInstance().getPreviewManager()
+                            .show(player, build, origin, random, reply.getBuildId());
+                    player.sendMessage("§8[§bCFM§8] §ePreviewing §f" + shown.getBlockCount()
+                            + " §eblocks, only you can see them. §7Use §f/cfm confirm §7to build or §f/cfm cancel§7.");
                 } else {
-                    BlockPlacementEngine.placeBuild(player, schema.getBlocks(), origin);
-                    player.sendMessage(
-                            "§8[§bCFM§8] §aBuild complete! §7(" + schema.getBlocks().size() + " blocks placed)");
+                    PlacementJob job = BlockPlacementEngine.placeBuild(player, build, origin, random,
+                            reply.getBuildId());
+                    player.sendMessage("§8[§bCFM§8] §ePlacing §f" + job.getTotalBlocks() + " §eblocks...");
+                    sendQueuedNotice(player, job);
+                    job.getCompletion().whenComplete((done, placeError) -> {
+                        if (placeError != null) {
+                            player.sendMessage("§8[§bCFM§8] §cPlacement failed: §7" + placeError.getMessage());
+                            return;
+                        }
+                        player.sendMessage("§8[§bCFM§8] §aBuild complete! §7(" + formatStats(done) + ")");
+                    });
                 }
+            } catch (BuildRejectedException e) {
+                player.sendMessage("§8[§bCFM§8] §cBuild rejected: §7" + e.getMessage());
             } catch (Exception e) {
                 player.sendMessage("§8[§dAI§8] §f" + response);
             }
         });
     }
 
-    private void handleParse(Player player) {
+    /**
+     * Places the build while the AI is still generating it: operations are
+     * parsed out of the response as it streams in and queued in segments.
+     */
+    private void streamCreate(Player player, int convId, String prompt, BlockVector3 origin, BuildRandom random) {
+        StreamingPlacement placement = new StreamingPlacement(player, origin, random);
+        IncrementalSchemaParser parser = new IncrementalSchemaParser(op -> {
+            boolean started = placement.hasStarted();
+            placement.accept(op);
+            if (!started && placement.hasStarted()) {
+                player.sendMessage("§8[§bCFM§8] §ePlacing blocks as they are generated...");
+                sendQueuedNotice(player, placement.getAdmission());
+            }
+        });
+
+        conversationService.ask(convId, prompt, parser::feed).whenComplete((reply, error) -> {
+            if (reply != null)
+                placement.setBuildId(reply.getBuildId());
+            placement.finish();
+            String response = reply != null ? reply.getText() : null;
+            if (!placement.hasStarted()) {
+                if (placement.getRejection() != null) {
+                    player.sendMessage("§8[§bCFM§8] §cBuild rejected: §7" + placement.getRejection());
+                } else if (response == null) {
+                    sendAIFailure(player, error);
+                } else {
+                    player.sendMessage("§8[§dAI§8] §f" + response);
+                }
+                return;
+            }
+
+            if (error != null)
+                Logger.error("Streamed generation failed", error);
+            if (placement.getRejection() != null) {
+                player.sendMessage("§8[§bCFM§8] §cBuild cut short: §7" + placement.getRejection());
+            } else if (response == null) {
+                player.sendMessage("§8[§bCFM§8] §cThe AI response was cut off; placing what arrived.");
+            }
+            if (parser.getSkippedCount() > 0)
+                player.sendMessage("§8[§bCFM§8] §7Skipped §f" + parser.getSkippedCount()
+                        + " §7malformed operations.");
+            placement.getCompletion().whenComplete((done, placeError) -> {
+                if (placeError != null) {
+                    player.sendMessage("§8[§bCFM§8] §cPlacement failed: §7" + placeError.getMessage());
+                    return;
+                }
+                player.sendMessage(String.format(
+                        "§8[§bCFM§8] §aBuild complete! §7(%d blocks placed in %.1fs, %d segments)",
+                        done.getBlocksPlaced(), done.getElapsedSeconds(), done.getSegmentCount()));
+            });
+        });
+    }
+
+    private void handleRefine(Player player, String[] args) {
+        if (args.length < 2) {
+            player.sendMessage("§8[§bCFM§8] §cUsage: §f/cfm refine <prompt>");
+            return;
+        }
+
+        String prompt = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+        Conversation conv = CFM.getInstance().getConversationDAO()
+                .getConversationsByUser(player.getUniqueId().toString()).stream()
+                .filter(c -> c.getStatus() == Conversation.ConversationStatus.ACTIVE)
+                .filter(c -> ConversationService.getOrigin(c) != null)
+                .findFirst().orElse(null);
+        if (conv == null) {
+            player.sendMessage("§8[§bCFM§8] §cNothing to refine. Use §f/cfm create <prompt> §cfirst.");
+            return;
+        }
+        if (!player.getWorld().getName().equals(ConversationService.getWorld(conv))) {
+            player.sendMessage("§8[§bCFM§8] §cYour last build is in §f" + ConversationService.getWorld(conv) + "§c.");
+            return;
+        }
+
+        BlockVector3 origin = ConversationService.getOrigin(conv);
+        BuildRandom random = BuildRandom.forConversation(conv.getId());
+
+        player.sendMessage("§8[§bCFM§8] §eThinking... §7Refining §f" + conv.getTitle() + "§7...");
+        sendAIBusyNotice(player);
+
+        conversationService.ask(conv.getId(), prompt, null).whenComplete((reply, error) -> {
+            String response = reply != null ? reply.getText() : null;
+            if (response == null) {
+                sendAIFailure(player, error);
+                return;
+            }
+
+            try {
+                BuildCache.Entry build = reply.getBuild();
+                if (build == null) {
+                    player.sendMessage("§8[§dAI§8] §f" + response);
+                    return;
+                }
+                // Only diff against what is actually in the world; anything else is placed whole
+                List<Build> builds = CFM.getInstance().getBuildDAO().getBuildsByConversation(conv.getId());
+                Build previous = getPlacedIteration(builds);
+                // Usually still cached, parsed and compiled, from when it was placed
+                BuildCache.Entry previousBuild = previous != null ? BuildCache.get(previous.getSchemaData()) : null;
+                PlacementJob job = previousBuild == null || !previousBuild.isBuild()
+                        ? BlockPlacementEngine.placeBuild(player, build, origin, random, reply.getBuildId())
+                        : BlockPlacementEngine.placeIteration(player, previousBuild, build, origin, random,
+                                reply.getBuildId(), builds.stream().map(Build::getId).collect(Collectors.toSet()));
+                player.sendMessage("§8[§bCFM§8] §eUpdating §f" + job.getTotalBlocks() + " §eblocks...");
+                sendQueuedNotice(player, job);
+                job.getCompletion().whenComplete((done, placeError) -> {
+                    if (placeError != null) {
+                        player.sendMessage("§8[§bCFM§8] §cPlacement failed: §7" + placeError.getMessage());
+                        return;
+                    }
+                    player.sendMessage("§8[§bCFM§8] §aBuild updated! §7(" + formatStats(done) + ")");
+                });
+            } catch (BuildRejectedException e) {
+                player.sendMessage("§8[§bCFM§8] §cBuild rejected: §7" + e.getMessage());
+            } catch (Exception e) {
+                player.sendMessage("§8[§dAI§8] §f" + response);
+            }
+        });
+    }
+
+    /**
+     * The newest iteration that was fully placed and not undone since, or null
+     * if there is none or a later placement failed partway over it.
+     */
+    private static Build getPlacedIteration(List<Build> builds) {
+        for (int i = builds.size() - 1; i >= 0; i--) {
+            Build build = builds.get(i);
+            // Pending iterations never reached the world and undone ones were rolled back
+            if (build.getStatus() == Build.BuildStatus.COMPLETED)
+                return build;
+            if (build.getStatus() == Build.BuildStatus.FAILED)
+                return null;
+        }
+        return null;
+    }
+
+    private void handleConfirm(Player player) {
+        PreviewManager.Preview preview = CFM.getInstance().getPreviewManager().getPreview(player.getUniqueId());
+        PlacementJob job;
+        try {
+            job = CFM.getInstance().getPreviewManager().confirm(player);
+        } catch (BuildRejectedException e) {
+            player.sendMessage("§8[§bCFM§8] §cBuild rejected: §7" + e.getMessage());
+            return;
+        }
+        if (job == null) {
+            player.sendMessage("§8[§bCFM§8] §7Nothing to confirm. Use §f/cfm preview <prompt> §7first.");
+            return;
+        }
+        // Now that it is placed, /cfm refine can find the conversation and where its build is
+        Build build = preview.getBuildId() > 0 ? CFM.getInstance().getBuildDAO().getBuild(preview.getBuildId()) : null;
+        if (build != null) {
+            CFM.getInstance().getConversationDAO().updateConversationMetadata(build.getConversationId(),
+                    ConversationService.createMetadata(preview.getWorld().getName(), preview.getOrigin()));
+        }
+        player.sendMessage("§8[§bCFM§8] §ePlacing §f" + job.getTotalBlocks() + " §eblocks...");
+        sendQueuedNotice(player, job);
+        job.getCompletion().whenComplete((done, error) -> {
+            if (error != null) {
+                player.sendMessage("§8[§bCFM§8] §cPlacement failed: §7" + error.getMessage());
+                return;
+            }
+            player.sendMessage("§8[§bCFM§8] §aBuild complete! §7(" + formatStats(done) + ")");
+        });
+    }
+
+    private void handleCancel(Player player) {
+        if (CFM.getInstance().getPreviewManager().cancel(player)) {
+            player.sendMessage("§8[§bCFM§8] §aPreview cleared.");
+        } else {
+            player.sendMessage("§8[§bCFM§8] §7No preview to cancel.");
+        }
+    }
+
+    private void handleParse(Player player, String[] args) {
         if (!WorldEditSelectionHelper.hasValidSelection(player)) {
             player.sendMessage("§8[§bCFM§8] §cPlease select a region first!");
             return;
         }
 
         Region region = WorldEditSelectionHelper.getPlayerSelection(player);
+        boolean compact = args.length > 1 && args[1].equalsIgnoreCase("compact");
+        File file = new File(CFM.getInstance().getDataFolder(),
+                "exports/" + player.getName() + "-" + System.currentTimeMillis() + ".json");
+        Writer out;
         try {
-            String json = WorldEditToVoxelParser.convertRegionToJson(player.getWorld(), region);
-            Logger.info("Parsed Build JSON:\n" + json);
-            player.sendMessage("§8[§bCFM§8] §aSelection parsed! §7JSON with bounds outputted to console.");
-        } catch (Exception e) {
+            Files.createDirectories(file.getParentFile().toPath());
+            out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
             player.sendMessage("§8[§bCFM§8] §cError: " + e.getMessage());
+            return;
         }
+
+        player.sendMessage("§8[§bCFM§8] §eParsing selection...");
+        WorldEditToVoxelParser.exportRegion(player.getWorld(), region, compact, out).whenComplete((count, error) -> {
+            try {
+                out.close();
+            } catch (IOException e) {
+                error = error != null ? error : e;
+            }
+            if (error != null) {
+                player.sendMessage("§8[§bCFM§8] §cError: " + error.getMessage());
+                Logger.error("Selection export failed", error);
+                return;
+            }
+            player.sendMessage("§8[§bCFM§8] §aSelection parsed! §7" + count + " operations written to §f"
+                    + CFM.getInstance().getDataFolder().getName() + "/exports/" + file.getName());
+        });
     }
 
     private void handleJsonParse(Player player, String[] args) {
@@ -144,14 +399,19 @@ public class CFMCommand implements CommandExecutor, TabCompleter {
         String url = args[1];
         player.sendMessage("§8[§bCFM§8] §eFetching JSON from remote source...");
 
-        fetchJson(url).thenAccept(json -> {
-            if (json == null) {
+        fetchSchema(url).whenComplete((schema, parseError) -> {
+            if (parseError != null) {
+                Throwable cause = parseError.getCause() != null ? parseError.getCause() : parseError;
+                player.sendMessage("§8[§bCFM§8] §cError parsing schema: §7" + cause.getMessage());
+                Logger.error("Schema parse error", cause);
+                return;
+            }
+            if (schema == null) {
                 player.sendMessage("§8[§bCFM§8] §cFailed to fetch or read from URL.");
                 return;
             }
 
             try {
-                VoxelSchemaParser.BuildSchema schema = VoxelSchemaParser.parseFullSchema(json);
                 if (schema.getBlocks().isEmpty()) {
                     player.sendMessage("§8[§bCFM§8] §cThe JSON provided contains no valid block data.");
                     return;
@@ -166,36 +426,246 @@ public class CFMCommand implements CommandExecutor, TabCompleter {
                         player.getLocation().getBlockY(),
                         player.getLocation().getBlockZ());
 
-                BlockPlacementEngine.placeBuild(player, schema.getBlocks(), origin);
-                player.sendMessage(
-                        "§8[§bCFM§8] §aConstruction finalized! §7(" + schema.getBlocks().size() + " blocks placed)");
-
+                PlacementJob job = BlockPlacementEngine.placeBuild(player, schema.getBlocks(), origin);
+                sendQueuedNotice(player, job);
+                job.getCompletion().whenComplete((done, error) -> {
+                    if (error != null) {
+                        player.sendMessage("§8[§bCFM§8] §cPlacement failed: §7" + error.getMessage());
+                        return;
+                    }
+                    player.sendMessage("§8[§bCFM§8] §aConstruction finalized! §7(" + formatStats(done) + ")");
+                });
+
+            } catch (BuildRejectedException e) {
+                player.sendMessage("§8[§bCFM§8] §cBuild rejected: §7" + e.getMessage());
             } catch (Exception e) {
-                player.sendMessage("§8[§bCFM§8] §cError parsing schema: §7" + e.getMessage());
-                Logger.error("Schema parse error", e);
+                player.sendMessage("§8[§bCFM§8] §cError placing schema: §7" + e.getMessage());
+                Logger.error("Schema placement error", e);
+            }
+        });
+    }
+
+    private void handleLoad(Player player, String[] args) {
+        if (args.length < 2) {
+            player.sendMessage("§8[§bCFM§8] §cUsage: §f/cfm load <file>");
+            return;
+        }
+        File file = resolveFile("exports", args[1]);
+        if (file == null || !file.isFile()) {
+            player.sendMessage("§8[§bCFM§8] §cNo such file in §fexports/§c.");
+            return;
+        }
+
+        BlockVector3 origin = BlockVector3.at(
+                player.getLocation().getBlockX(),
+                player.getLocation().getBlockY(),
+                player.getLocation().getBlockZ());
+        player.sendMessage("§8[§bCFM§8] §eLoading §f" + file.getName() + "§e...");
+
+        CompletableFuture.supplyAsync(() -> readSchema(file)).thenAccept(schema -> {
+            if (schema.getBlocks().isEmpty()) {
+                player.sendMessage("§8[§bCFM§8] §cThe file contains no valid block data.");
+                return;
+            }
+            PlacementJob job = BlockPlacementEngine.placeBuild(player, schema.getBlocks(), origin);
+            player.sendMessage("§8[§bCFM§8] §ePlacing §f" + job.getTotalBlocks() + " §eblocks...");
+            sendQueuedNotice(player, job);
+            job.getCompletion().whenComplete((done, error) -> {
+                if (error != null) {
+                    player.sendMessage("§8[§bCFM§8] §cPlacement failed: §7" + error.getMessage());
+                    return;
+                }
+                player.sendMessage("§8[§bCFM§8] §aBuild complete! §7(" + formatStats(done) + ")");
+            });
+        }).exceptionally(error -> {
+            Throwable cause = error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof BuildRejectedException) {
+                player.sendMessage("§8[§bCFM§8] §cBuild rejected: §7" + cause.getMessage());
+            } else {
+                player.sendMessage("§8[§bCFM§8] §cError loading schema: §7" + cause.getMessage());
+                Logger.error("Schema load error", cause);
+            }
+            return null;
+        });
+    }
+
+    private void handleImport(Player player, String[] args) {
+        if (args.length < 2) {
+            player.sendMessage("§8[§bCFM§8] §cUsage: §f/cfm import <file" + SpongeSchematicReader.EXTENSION + ">");
+            return;
+        }
+        String name = args[1].endsWith(SpongeSchematicReader.EXTENSION) ? args[1]
+                : args[1] + SpongeSchematicReader.EXTENSION;
+        File file = resolveFile("schematics", name);
+        if (file == null || !file.isFile()) {
+            player.sendMessage("§8[§bCFM§8] §cNo such file in §fschematics/§c.");
+            return;
+        }
+
+        BlockVector3 origin = BlockVector3.at(
+                player.getLocation().getBlockX(),
+                player.getLocation().getBlockY(),
+                player.getLocation().getBlockZ());
+        player.sendMessage("§8[§bCFM§8] §eImporting §f" + file.getName() + "§e...");
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return SpongeSchematicReader.read(file.toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).thenAccept(build -> {
+            PlacementJob job = BlockPlacementEngine.placeBuild(player, build, origin);
+            player.sendMessage("§8[§bCFM§8] §ePlacing §f" + job.getTotalBlocks() + " §eblocks...");
+            sendQueuedNotice(player, job);
+            job.getCompletion().whenComplete((done, error) -> {
+                if (error != null) {
+                    player.sendMessage("§8[§bCFM§8] §cPlacement failed: §7" + error.getMessage());
+                    return;
+                }
+                player.sendMessage("§8[§bCFM§8] §aImport complete! §7(" + formatStats(done) + ")");
+            });
+        }).exceptionally(error -> {
+            Throwable cause = error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof BuildRejectedException) {
+                player.sendMessage("§8[§bCFM§8] §cBuild rejected: §7" + cause.getMessage());
+            } else {
+                player.sendMessage("§8[§bCFM§8] §cError importing schematic: §7" + cause.getMessage());
+                Logger.error("Schematic import error", cause);
+            }
+            return null;
+        });
+    }
+
+    private void handleConvert(Player player, String[] args) {
+        if (args.length < 2) {
+            player.sendMessage("§8[§bCFM§8] §cUsage: §f/cfm convert <file>");
+            return;
+        }
+        File source = resolveFile("exports", args[1]);
+        if (source == null || !source.isFile()) {
+            player.sendMessage("§8[§bCFM§8] §cNo such file in §fexports/§c.");
+            return;
+        }
+        boolean toBinary = !source.getName().endsWith(BinaryVoxelSchema.EXTENSION);
+        String baseName = source.getName().contains(".")
+                ? source.getName().substring(0, source.getName().lastIndexOf('.'))
+                : source.getName();
+        File target = new File(source.getParentFile(), baseName + (toBinary ? BinaryVoxelSchema.EXTENSION : ".json"));
+
+        CompletableFuture.runAsync(() -> {
+            VoxelSchemaParser.BuildSchema schema = readSchema(source);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.toPath()))) {
+                if (toBinary) {
+                    BinaryVoxelSchema.write(schema, out);
+                } else {
+                    out.write(VoxelSchemaParser.toJson(schema).getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((done, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                player.sendMessage("§8[§bCFM§8] §cError converting: §7" + cause.getMessage());
+                Logger.error("Schema conversion error", cause);
+                return;
             }
+            player.sendMessage(String.format("§8[§bCFM§8] §aWrote §f%s §7(%d bytes, was %d)", target.getName(),
+                    target.length(), source.length()));
         });
     }
 
-    private CompletableFuture<String> fetchJson(String url) {
+    /**
+     * A file directly inside one of the plugin's folders, or null if the name
+     * tries to leave it.
+     */
+    private static File resolveFile(String folder, String name) {
+        if (name.contains("/") || name.contains("\\") || name.contains(".."))
+            return null;
+        return new File(CFM.getInstance().getDataFolder(), folder + "/" + name);
+    }
+
+    /**
+     * Reads a {@code .cfmv} file through a memory map, anything else as JSON.
+     */
+    private static VoxelSchemaParser.BuildSchema readSchema(File file) {
+        try {
+            if (file.getName().endsWith(BinaryVoxelSchema.EXTENSION))
+                return BinaryVoxelSchema.read(file.toPath());
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                return VoxelSchemaParser.parseFullSchema(reader);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses the schema as the response body streams in, without buffering it
+     * into a string.
+     *
+     * @return the schema, or null if the URL could not be fetched
+     */
+    private CompletableFuture<VoxelSchemaParser.BuildSchema> fetchSchema(String url) {
         return CompletableFuture.supplyAsync(() -> {
+            HttpResponse<InputStream> response;
             try {
                 HttpRequest request = HttpRequest.newBuilder()
                         .uri(URI.create(url))
                         .GET()
                         .build();
 
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                if (response.statusCode() == 200) {
-                    return response.body();
-                }
+                response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
             } catch (Exception e) {
                 Logger.error("Failed to fetch JSON from " + url, e);
+                return null;
+            }
+
+            try (Reader reader = new InputStreamReader(response.body(), StandardCharsets.UTF_8)) {
+                if (response.statusCode() != 200)
+                    return null;
+                return VoxelSchemaParser.parseFullSchema(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            return null;
         });
     }
 
+    private static void sendQueuedNotice(Player player, PlacementJob job) {
+        sendQueuedNotice(player, job.getAdmission());
+    }
+
+    private static void sendQueuedNotice(Player player, PlacementScheduler.Admission admission) {
+        if (admission != null && admission.getDecision() == PlacementScheduler.Admission.Decision.QUEUE) {
+            player.sendMessage("§8[§bCFM§8] §eServer is busy, your build is queued: §7" + admission.getReason());
+        }
+    }
+
+    private static void sendAIBusyNotice(Player player) {
+        AIClient client = CFM.getInstance().getAiClient();
+        if (client.isBusy()) {
+            player.sendMessage("§8[§bCFM§8] §eThe AI is busy, your request may wait its turn §7("
+                    + client.getQueuedCount() + " waiting)");
+        }
+    }
+
+    private static void sendAIFailure(Player player, Throwable error) {
+        Throwable cause = error != null && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof AIBusyException) {
+            player.sendMessage("§8[§bCFM§8] §c" + cause.getMessage());
+            return;
+        }
+        if (cause != null)
+            Logger.error("AI request failed", cause);
+        player.sendMessage("§8[§bCFM§8] §cAI failed to generate a build. Try again.");
+    }
+
+    private static String formatStats(ScheduledJob job) {
+        return String.format("%d blocks placed in %.1fs, %.0f blocks/s", job.getBlocksPlaced(),
+                job.getElapsedSeconds(), job.getBlocksPerSecond());
+    }
+
     private void handleList(Player player) {
         List<Conversation> conversations = CFM.getInstance().getConversationDAO()
                 .getConversationsByUser(player.getUniqueId().toString());
@@ -209,6 +679,53 @@ public class CFMCommand implements CommandExecutor, TabCompleter {
         }
     }
 
+    private void handleStats(Player player) {
+        PlacementScheduler scheduler = CFM.getInstance().getPlacementScheduler();
+        player.sendMessage("§b--- CFM Stats ---");
+        player.sendMessage(String.format("§7Placement: §f%.0f blocks/s §7(budget %.1fms/tick, %d job(s) queued)",
+                scheduler.getBlocksPerSecond(), scheduler.getCurrentBudgetMs(), scheduler.getQueuedJobCount()));
+        player.sendMessage("§7Block cache: §f" + BlockStateCache.getStats());
+        player.sendMessage("§7Build cache: §f" + BuildCache.getStats());
+        player.sendMessage("§7AI response cache: §f" + CFM.getInstance().getResponseCache().getStats());
+        player.sendMessage("§7AI requests: §f" + CFM.getInstance().getAiClient().getStats());
+    }
+
+    private void handleQueue(Player player) {
+        List<PlacementScheduler.QueueEntry> queue = CFM.getInstance().getPlacementScheduler().getQueue();
+        if (queue.isEmpty()) {
+            player.sendMessage("§8[§bCFM§8] §7The placement queue is empty.");
+            return;
+        }
+        player.sendMessage("§b--- Placement Queue ---");
+        for (PlacementScheduler.QueueEntry entry : queue) {
+            String color = switch (entry.getState()) {
+                case "running" -> "§a";
+                case "held" -> "§c";
+                default -> "§e";
+            };
+            player.sendMessage(String.format("§8[§7#%d§8] %s%s %s §7%s in %s §8(x%d) §f%d§7/§f%d §7blocks, %.0f/s",
+                    entry.getJobId(), color, entry.getKind(), entry.getState(), entry.getOwner(),
+                    entry.getWorld(), entry.getWeight(), entry.getBlocksPlaced(), entry.getTotalBlocks(),
+                    entry.getBlocksPerSecond()));
+        }
+    }
+
+    private void handleUndo(Player player) {
+        RollbackJob job = CFM.getInstance().getUndoManager().undo(player.getUniqueId());
+        if (job == null) {
+            player.sendMessage("§8[§bCFM§8] §7Nothing to undo.");
+            return;
+        }
+        player.sendMessage("§8[§bCFM§8] §eRolling back §f" + job.getTotalBlocks() + " §eblocks...");
+        job.getCompletion().whenComplete((done, error) -> {
+            if (error != null) {
+                player.sendMessage("§8[§bCFM§8] §cUndo failed: §7" + error.getMessage());
+                return;
+            }
+            player.sendMessage("§8[§bCFM§8] §aUndo complete! §7(" + formatStats(done) + ")");
+        });
+    }
+
     private void handleReload(Player player) {
         if (!player.hasPermission("cfm.admin")) {
             player.sendMessage("§cNo permission!");
@@ -224,9 +741,19 @@ public class CFMCommand implements CommandExecutor, TabCompleter {
         player.sendMessage(" ");
         player.sendMessage("§b/cfm tool §8- §7Get selection wand");
         player.sendMessage("§b/cfm create <prompt> §8- §7Generate build");
-        player.sendMessage("§b/cfm parse §8- §7Selection to JSON (w/ Bounds)");
+        player.sendMessage("§b/cfm refine <prompt> §8- §7Change your last build, placing only the differences");
+        player.sendMessage("§b/cfm preview <prompt> §8- §7Generate a build only you can see");
+        player.sendMessage("§b/cfm confirm §8- §7Place your previewed build");
+        player.sendMessage("§b/cfm cancel §8- §7Clear your preview");
+        player.sendMessage("§b/cfm parse [compact] §8- §7Selection to a JSON file (w/ Bounds)");
         player.sendMessage("§b/cfm jsonparse <url> §8- §7Build from URL");
+        player.sendMessage("§b/cfm load <file> §8- §7Build from a .json or .cfmv file in exports/");
+        player.sendMessage("§b/cfm import <file> §8- §7Build a Sponge .schem from schematics/");
+        player.sendMessage("§b/cfm convert <file> §8- §7Convert an export between .json and .cfmv");
         player.sendMessage("§b/cfm list §8- §7View your chats");
+        player.sendMessage("§b/cfm stats §8- §7Placement and cache stats");
+        player.sendMessage("§b/cfm queue §8- §7Show queued builds");
+        player.sendMessage("§b/cfm undo §8- §7Roll back your last build");
         player.sendMessage("§b/cfm reload §8- §7Reload plugin");
     }
 
@@ -234,10 +761,13 @@ public class CFMCommand implements CommandExecutor, TabCompleter {
     public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command,
             @NotNull String alias, @NotNull String[] args) {
         if (args.length == 1) {
-            return Arrays.asList("tool", "create", "parse", "jsonparse", "list", "help", "reload").stream()
+            return Arrays.asList("tool", "create", "refine", "preview", "confirm", "cancel", "parse", "jsonparse", "load", "convert", "import", "list", "stats", "queue", "undo", "help", "reload").stream()
                     .filter(s -> s.startsWith(args[0].toLowerCase()))
                     .collect(Collectors.toList());
         }
+        if (args.length == 2 && args[0].equalsIgnoreCase("parse")) {
+            return "compact".startsWith(args[1].toLowerCase()) ? List.of("compact") : new ArrayList<>();
+        }
         return new ArrayList<>();
     }
 }
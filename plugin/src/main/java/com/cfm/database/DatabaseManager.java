@@ -67,6 +67,13 @@ public class DatabaseManager {
                     "UNIQUE(conversation_id, iteration_number)" +
                     ")");
 
+            // AI responses by prompt cache key, see ResponseCache
+            statement.execute("CREATE TABLE IF NOT EXISTS response_cache (" +
+                    "cache_key TEXT PRIMARY KEY," +
+                    "response TEXT NOT NULL," +
+                    "created_at INTEGER NOT NULL" +
+                    ")");
+
             // Indexes
             statement.execute(
                     "CREATE INDEX IF NOT EXISTS idx_conversations_user_created ON conversations(user_uuid, created_at)");
@@ -74,6 +81,7 @@ public class DatabaseManager {
             statement.execute(
                     "CREATE INDEX IF NOT EXISTS idx_builds_conversation_iteration ON builds(conversation_id, iteration_number)");
             statement.execute("CREATE INDEX IF NOT EXISTS idx_builds_status ON builds(status)");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_response_cache_created ON response_cache(created_at)");
         }
     }
 
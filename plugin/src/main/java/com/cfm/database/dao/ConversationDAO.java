@@ -80,6 +80,17 @@ public class ConversationDAO {
         }
     }
 
+    public void updateConversationMetadata(int id, String metadata) {
+        String sql = "UPDATE conversations SET metadata = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
+            pstmt.setString(1, metadata);
+            pstmt.setInt(2, id);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            Logger.error("Error updating conversation metadata!", e);
+        }
+    }
+
     private Conversation mapResultSetToConversation(ResultSet rs) throws SQLException {
         return Conversation.builder()
                 .id(rs.getInt("id"))
@@ -0,0 +1,65 @@
+package com.cfm.database.dao;
+
+import java.sql.*;
+
+import com.cfm.database.DatabaseManager;
+import com.cfm.model.CachedResponse;
+import com.cfm.util.Logger;
+
+public class ResponseCacheDAO {
+
+    private final DatabaseManager dbManager;
+
+    public ResponseCacheDAO(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+    }
+
+    /**
+     * @return the cached response, or null if there is none stored at or after {@code notBefore}
+     */
+    public CachedResponse getResponse(String key, long notBefore) {
+        String sql = "SELECT * FROM response_cache WHERE cache_key = ? AND created_at >= ?";
+        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
+            pstmt.setString(1, key);
+            pstmt.setLong(2, notBefore);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return CachedResponse.builder()
+                            .cacheKey(rs.getString("cache_key"))
+                            .response(rs.getString("response"))
+                            .createdAt(rs.getLong("created_at"))
+                            .build();
+                }
+            }
+        } catch (SQLException e) {
+            Logger.error("Error reading response cache!", e);
+        }
+        return null;
+    }
+
+    public void putResponse(CachedResponse cached) {
+        String sql = "INSERT OR REPLACE INTO response_cache (cache_key, response, created_at) VALUES (?, ?, ?)";
+        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
+            pstmt.setString(1, cached.getCacheKey());
+            pstmt.setString(2, cached.getResponse());
+            pstmt.setLong(3, cached.getCreatedAt());
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            Logger.error("Error writing response cache!", e);
+        }
+    }
+
+    /**
+     * @return the number of entries removed
+     */
+    public int deleteOlderThan(long createdAt) {
+        String sql = "DELETE FROM response_cache WHERE created_at < ?";
+        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
+            pstmt.setLong(1, createdAt);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            Logger.error("Error pruning response cache!", e);
+        }
+        return 0;
+    }
+}
@@ -19,7 +19,8 @@ public class Build {
     private String dimensions; // JSON dimensions {width, height, depth}
     private Timestamp createdAt;
 
+    // PENDING until placed; only COMPLETED builds are fully in the world
     public enum BuildStatus {
-        PENDING, PROCESSING, COMPLETED, FAILED
+        PENDING, PROCESSING, COMPLETED, FAILED, UNDONE
     }
 }
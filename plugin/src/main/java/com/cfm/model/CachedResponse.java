@@ -0,0 +1,12 @@
+package com.cfm.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class CachedResponse {
+    private String cacheKey;
+    private String response;
+    private long createdAt; // epoch millis
+}
@@ -0,0 +1,288 @@
+package com.cfm.schema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Binary form of a {@link VoxelSchemaParser.BuildSchema} ({@code .cfmv}),
+ * lossless in both directions. Layout, all integers as varints:
+ *
+ * <pre>
+ * "CFMV" version
+ * metadata flag [name description workflow region-flag [min max]]
+ * block-state palette, pattern palette
+ * runs: length state pattern corner-mask, then per operation the x1/y1/z1
+ *       delta from the previous operation and each present corner relative to it
+ * </pre>
+ *
+ * A run groups consecutive operations with the same state, pattern and
+ * corners, so exported builds of neighbouring blocks cost a few bytes each.
+ * Strings are nullable: their length is stored plus one, with 0 for null.
+ */
+public final class BinaryVoxelSchema {
+
+    public static final String EXTENSION = ".cfmv";
+
+    private static final byte[] MAGIC = { 'C', 'F', 'M', 'V' };
+    private static final int VERSION = 1;
+
+    private BinaryVoxelSchema() {
+    }
+
+    public static byte[] toBytes(VoxelSchemaParser.BuildSchema schema) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(schema, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static void write(VoxelSchemaParser.BuildSchema schema, OutputStream stream) throws IOException {
+        Output out = new Output(stream);
+        out.stream.write(MAGIC);
+        out.varint(VERSION);
+
+        VoxelSchemaParser.BuildMetadata metadata = schema.getMetadata();
+        out.varint(metadata != null ? 1 : 0);
+        if (metadata != null) {
+            out.string(metadata.getName());
+            out.string(metadata.getDescription());
+            out.string(metadata.getWorkflow());
+            VoxelSchemaParser.RegionBounds region = metadata.getRegion();
+            out.varint(region != null ? 1 : 0);
+            if (region != null) {
+                out.vector(region.getMin());
+                out.vector(region.getMax());
+            }
+        }
+
+        List<VoxelSchemaParser.BuildOperation> operations = schema.getOperations();
+        Map<String, Integer> states = new HashMap<>();
+        Map<String, Integer> patterns = new HashMap<>();
+        List<String> stateList = new ArrayList<>();
+        List<String> patternList = new ArrayList<>();
+        for (VoxelSchemaParser.BuildOperation op : operations) {
+            intern(op.getBlockData(), states, stateList);
+            intern(op.getPattern(), patterns, patternList);
+        }
+        out.varint(stateList.size());
+        for (String state : stateList)
+            out.string(state);
+        out.varint(patternList.size());
+        for (String pattern : patternList)
+            out.string(pattern);
+
+        int lastX = 0, lastY = 0, lastZ = 0;
+        int start = 0;
+        while (start < operations.size()) {
+            VoxelSchemaParser.BuildOperation first = operations.get(start);
+            int end = start + 1;
+            while (end < operations.size() && sameRun(first, operations.get(end)))
+                end++;
+
+            out.varint(end - start);
+            out.varint(states.get(first.getBlockData()));
+            out.varint(patterns.get(first.getPattern()));
+            out.varint(cornerMask(first));
+            for (int i = start; i < end; i++) {
+                VoxelSchemaParser.BuildOperation op = operations.get(i);
+                out.zigzag(op.getX1() - lastX);
+                out.zigzag(op.getY1() - lastY);
+                out.zigzag(op.getZ1() - lastZ);
+                if (op.getX2() != null)
+                    out.zigzag(op.getX2() - op.getX1());
+                if (op.getY2() != null)
+                    out.zigzag(op.getY2() - op.getY1());
+                if (op.getZ2() != null)
+                    out.zigzag(op.getZ2() - op.getZ1());
+                lastX = op.getX1();
+                lastY = op.getY1();
+                lastZ = op.getZ1();
+            }
+            start = end;
+        }
+        out.stream.flush();
+    }
+
+    /**
+     * Maps the file into memory and decodes it in place, without reading it
+     * into a byte array or string first.
+     */
+    public static VoxelSchemaParser.BuildSchema read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is not a valid schema
+     */
+    public static VoxelSchemaParser.BuildSchema read(ByteBuffer buffer) {
+        try {
+            return decode(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or corrupt " + EXTENSION + " data", e);
+        }
+    }
+
+    public static boolean isBinary(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length)
+            return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static VoxelSchemaParser.BuildSchema decode(ByteBuffer in) {
+        if (!isBinary(in))
+            throw new IllegalArgumentException("Not a " + EXTENSION + " schema");
+        in.position(in.position() + MAGIC.length);
+        int version = varint(in);
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported " + EXTENSION + " version " + version);
+
+        VoxelSchemaParser.BuildMetadata metadata = null;
+        if (varint(in) == 1) {
+            VoxelSchemaParser.BuildMetadata.BuildMetadataBuilder builder = VoxelSchemaParser.BuildMetadata.builder()
+                    .name(string(in))
+                    .description(string(in))
+                    .workflow(string(in));
+            if (varint(in) == 1)
+                builder.region(new VoxelSchemaParser.RegionBounds(vector(in), vector(in)));
+            metadata = builder.build();
+        }
+
+        String[] states = new String[varint(in)];
+        for (int i = 0; i < states.length; i++)
+            states[i] = string(in);
+        String[] patterns = new String[varint(in)];
+        for (int i = 0; i < patterns.length; i++)
+            patterns[i] = string(in);
+
+        List<VoxelSchemaParser.BuildOperation> operations = new ArrayList<>();
+        int x = 0, y = 0, z = 0;
+        while (in.hasRemaining()) {
+            int length = varint(in);
+            String state = states[varint(in)];
+            String pattern = patterns[varint(in)];
+            int corners = varint(in);
+            for (int i = 0; i < length; i++) {
+                x += zigzag(in);
+                y += zigzag(in);
+                z += zigzag(in);
+                operations.add(VoxelSchemaParser.BuildOperation.builder()
+                        .x1(x).y1(y).z1(z)
+                        .x2((corners & 1) != 0 ? x + zigzag(in) : null)
+                        .y2((corners & 2) != 0 ? y + zigzag(in) : null)
+                        .z2((corners & 4) != 0 ? z + zigzag(in) : null)
+                        .blockData(state)
+                        .pattern(pattern)
+                        .build());
+            }
+        }
+        return VoxelSchemaParser.BuildSchema.builder()
+                .metadata(metadata)
+                .operations(operations)
+                .build();
+    }
+
+    private static boolean sameRun(VoxelSchemaParser.BuildOperation a, VoxelSchemaParser.BuildOperation b) {
+        return Objects.equals(a.getBlockData(), b.getBlockData()) && Objects.equals(a.getPattern(), b.getPattern())
+                && cornerMask(a) == cornerMask(b);
+    }
+
+    private static int cornerMask(VoxelSchemaParser.BuildOperation op) {
+        return (op.getX2() != null ? 1 : 0) | (op.getY2() != null ? 2 : 0) | (op.getZ2() != null ? 4 : 0);
+    }
+
+    private static void intern(String value, Map<String, Integer> indices, List<String> values) {
+        if (!indices.containsKey(value)) {
+            indices.put(value, values.size());
+            values.add(value);
+        }
+    }
+
+    private static int varint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static int zigzag(ByteBuffer in) {
+        int value = varint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String string(ByteBuffer in) {
+        int length = varint(in) - 1;
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static VoxelSchemaParser.Vector3 vector(ByteBuffer in) {
+        return new VoxelSchemaParser.Vector3(zigzag(in), zigzag(in), zigzag(in));
+    }
+
+    private static class Output {
+
+        private final OutputStream stream;
+
+        Output(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        void varint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                stream.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            stream.write(value);
+        }
+
+        void zigzag(int value) throws IOException {
+            varint((value << 1) ^ (value >> 31));
+        }
+
+        void string(String value) throws IOException {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1);
+            stream.write(bytes);
+        }
+
+        void vector(VoxelSchemaParser.Vector3 vector) throws IOException {
+            zigzag(vector.getX());
+            zigzag(vector.getY());
+            zigzag(vector.getZ());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.cfm.schema;
+
+import com.google.gson.stream.JsonReader;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.function.Consumer;
+
+/**
+ * Push parser for schemas that arrive a fragment at a time, such as an LLM
+ * response being streamed. Each operation is handed to the consumer as soon
+ * as its object closes, long before the response is complete.
+ * <p>
+ * Accepts the same shapes as {@link VoxelSchemaParser#parse}: a bare array
+ * of operations or an object with a {@code blocks} array, with anything
+ * before the first '{' or '[' ignored. Only the operation being read is
+ * buffered. An operation that does not parse is skipped rather than failing
+ * the whole stream; metadata is not read, parse the full text for that.
+ */
+public class IncrementalSchemaParser {
+
+    private final Consumer<VoxelSchemaParser.BuildOperation> consumer;
+
+    private boolean started;
+    private boolean finished;
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    // Depth inside the operations array, or -1 outside it
+    private int operationsDepth = -1;
+    // The last string read directly inside the root object, i.e. the last key
+    private final StringBuilder key = new StringBuilder();
+    private String lastKey;
+    // Text of the operation being read, null between operations
+    private StringBuilder operation;
+
+    @Getter
+    private int operationCount;
+    @Getter
+    private int skippedCount;
+
+    public IncrementalSchemaParser(Consumer<VoxelSchemaParser.BuildOperation> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Consumes the next fragment of the response. Fragments may split tokens,
+     * strings and escapes anywhere.
+     */
+    public void feed(CharSequence fragment) {
+        for (int i = 0; i < fragment.length() && !finished; i++) {
+            accept(fragment.charAt(i));
+        }
+    }
+
+    /**
+     * Whether the root JSON value has closed; anything fed after it is ignored.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void accept(char c) {
+        if (!started) {
+            if (c != '{' && c != '[')
+                return;
+            started = true;
+            if (c == '[')
+                operationsDepth = 1;
+        }
+        if (operation != null)
+            operation.append(c);
+
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+                if (depth == 1 && operationsDepth < 0)
+                    lastKey = key.toString();
+            }
+            if (depth == 1 && operationsDepth < 0 && inString && !escaped && c != '\\')
+                key.append(c);
+            return;
+        }
+
+        switch (c) {
+            case '"' -> {
+                inString = true;
+                key.setLength(0);
+            }
+            case '{', '[' -> {
+                if (c == '[' && depth == 1 && operationsDepth < 0 && "blocks".equals(lastKey))
+                    operationsDepth = 2;
+                if (c == '{' && depth == operationsDepth && operation == null) {
+                    operation = new StringBuilder(96);
+                    operation.append(c);
+                }
+                depth++;
+            }
+            case '}', ']' -> {
+                depth--;
+                if (operation != null && depth == operationsDepth) {
+                    emit(operation.toString());
+                    operation = null;
+                } else if (depth < operationsDepth) {
+                    operationsDepth = -1;
+                }
+                if (depth <= 0)
+                    finished = true;
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void emit(String json) {
+        VoxelSchemaParser.BuildOperation op;
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            op = VoxelSchemaParser.parseOperation(reader);
+        } catch (IOException | RuntimeException e) {
+            op = null;
+        }
+        if (op == null || op.getBlockData() == null) {
+            skippedCount++;
+            return;
+        }
+        operationCount++;
+        consumer.accept(op);
+    }
+}
@@ -0,0 +1,209 @@
+package com.cfm.schema;
+
+import com.cfm.util.Logger;
+import com.cfm.worldedit.BlockPalette;
+import com.cfm.worldedit.BlockStateCache;
+import com.cfm.worldedit.CompiledBuild;
+import com.cfm.worldedit.VoxelBuffer;
+import com.sk89q.worldedit.world.block.BlockState;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads Sponge schematics ({@code .schem}, versions 2 and 3) straight into a
+ * {@link CompiledBuild}, with no JSON or NBT tree in between. The gzipped NBT
+ * is walked tag by tag and the varint block array is decoded as it streams
+ * past, provided the dimensions and palette come first, as every writer puts
+ * them. Air is skipped; block entities and biomes are ignored.
+ */
+public final class SpongeSchematicReader {
+
+    public static final String EXTENSION = ".schem";
+
+    private static final int TAG_END = 0, TAG_BYTE = 1, TAG_SHORT = 2, TAG_INT = 3, TAG_LONG = 4, TAG_FLOAT = 5,
+            TAG_DOUBLE = 6, TAG_BYTE_ARRAY = 7, TAG_STRING = 8, TAG_LIST = 9, TAG_COMPOUND = 10,
+            TAG_INT_ARRAY = 11, TAG_LONG_ARRAY = 12;
+
+    private final DataInputStream in;
+    private final BlockPalette palette = new BlockPalette();
+
+    private int width = -1, height = -1, length = -1;
+    // Schematic palette id -> build palette index, -1 for air and unknown blocks
+    private int[] paletteMap;
+    private byte[] pendingData;
+    private VoxelBuffer voxels;
+
+    private SpongeSchematicReader(InputStream stream) {
+        this.in = new DataInputStream(stream);
+    }
+
+    public static CompiledBuild read(Path file) throws IOException {
+        try (InputStream stream = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file)), 1 << 16)) {
+            return new SpongeSchematicReader(stream).read();
+        }
+    }
+
+    private CompiledBuild read() throws IOException {
+        if (in.readUnsignedByte() != TAG_COMPOUND)
+            throw new IOException("Not a schematic: root tag is not a compound");
+        skipFully(in.readUnsignedShort());
+        readCompound("");
+
+        if (voxels == null && pendingData != null) {
+            // The block array came before the header or palette; decode it now
+            requireHeader();
+            decode(new DataInputStream(new ByteArrayInputStream(pendingData)), pendingData.length);
+        }
+        if (voxels == null)
+            throw new IOException("Schematic has no block data");
+        return new CompiledBuild(palette, voxels, Collections.emptyList());
+    }
+
+    private void readCompound(String name) throws IOException {
+        // Biomes have a Palette and Data of their own in version 3
+        boolean blocks = !name.equals("Biomes");
+        int type;
+        while ((type = in.readUnsignedByte()) != TAG_END) {
+            String key = in.readUTF();
+            if (type == TAG_SHORT && key.equals("Width")) {
+                width = in.readUnsignedShort();
+            } else if (type == TAG_SHORT && key.equals("Height")) {
+                height = in.readUnsignedShort();
+            } else if (type == TAG_SHORT && key.equals("Length")) {
+                length = in.readUnsignedShort();
+            } else if (type == TAG_COMPOUND && blocks && key.equals("Palette")) {
+                readPalette();
+            } else if (type == TAG_BYTE_ARRAY && blocks && (key.equals("BlockData") || key.equals("Data"))) {
+                int size = in.readInt();
+                if (width >= 0 && height >= 0 && length >= 0 && paletteMap != null) {
+                    decode(in, size);
+                } else {
+                    pendingData = new byte[size];
+                    in.readFully(pendingData);
+                }
+            } else if (type == TAG_COMPOUND) {
+                readCompound(key);
+            } else {
+                skip(type);
+            }
+        }
+    }
+
+    private void readPalette() throws IOException {
+        Map<Integer, String> pendingPalette = new HashMap<>();
+        int type;
+        while ((type = in.readUnsignedByte()) != TAG_END) {
+            String state = in.readUTF();
+            if (type != TAG_INT)
+                throw new IOException("Palette entry " + state + " is not an int");
+            pendingPalette.put(in.readInt(), state);
+        }
+
+        int max = pendingPalette.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        paletteMap = new int[max + 1];
+        Arrays.fill(paletteMap, -1);
+        List<String> unknown = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : pendingPalette.entrySet()) {
+            BlockState state = BlockStateCache.get(entry.getValue());
+            if (state == null) {
+                unknown.add(entry.getValue());
+            } else if (!state.getBlockType().getMaterial().isAir()) {
+                paletteMap[entry.getKey()] = palette.indexOf(state);
+            }
+        }
+        if (!unknown.isEmpty())
+            Logger.warn("Schematic has unknown blocks, skipping them: " + unknown);
+    }
+
+    /**
+     * Decodes {@code size} bytes of varint palette ids in x, z, y order.
+     */
+    private void decode(DataInputStream data, int size) throws IOException {
+        requireHeader();
+        voxels = new VoxelBuffer(palette, Math.max(64, size / 4));
+        int layer = width * length;
+        long volume = (long) layer * height;
+        int index = 0;
+        int read = 0;
+        while (read < size) {
+            int id = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = data.readUnsignedByte();
+                read++;
+                id |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && read < size);
+
+            if (index >= volume)
+                throw new IOException("Block data is longer than the schematic");
+            int state = id < paletteMap.length ? paletteMap[id] : -1;
+            if (state >= 0) {
+                int y = index / layer;
+                int rest = index - y * layer;
+                voxels.add(rest % width, y, rest / width, state);
+            }
+            index++;
+        }
+    }
+
+    private void requireHeader() throws IOException {
+        if (width < 0 || height < 0 || length < 0 || paletteMap == null)
+            throw new IOException("Schematic is missing its size or palette");
+    }
+
+    private void skip(int type) throws IOException {
+        switch (type) {
+            case TAG_BYTE -> skipFully(1);
+            case TAG_SHORT -> skipFully(2);
+            case TAG_INT, TAG_FLOAT -> skipFully(4);
+            case TAG_LONG, TAG_DOUBLE -> skipFully(8);
+            case TAG_BYTE_ARRAY -> skipFully(in.readInt());
+            case TAG_STRING -> skipFully(in.readUnsignedShort());
+            case TAG_INT_ARRAY -> skipFully(in.readInt() * 4L);
+            case TAG_LONG_ARRAY -> skipFully(in.readInt() * 8L);
+            case TAG_LIST -> {
+                int elementType = in.readUnsignedByte();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    skip(elementType);
+                }
+            }
+            case TAG_COMPOUND -> {
+                int child;
+                while ((child = in.readUnsignedByte()) != TAG_END) {
+                    skipFully(in.readUnsignedShort());
+                    skip(child);
+                }
+            }
+            default -> throw new IOException("Unknown NBT tag type " + type);
+        }
+    }
+
+    private void skipFully(long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() < 0)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+}
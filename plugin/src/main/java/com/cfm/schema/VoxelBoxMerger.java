@@ -0,0 +1,105 @@
+package com.cfm.schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Greedily merges exported {@code single} operations of the same block state
+ * into maximal cuboids, written as {@code line}, {@code flat} or
+ * {@code solid} operations. Boxes never overlap, so the result places exactly
+ * the same blocks. Doors stay single: the compiler pairs each lower half with
+ * its own upper half.
+ */
+public final class VoxelBoxMerger {
+
+    private static final int EMPTY = -1;
+
+    private VoxelBoxMerger() {
+    }
+
+    /**
+     * @param blocks single-block operations with coordinates in [0, size)
+     */
+    public static List<VoxelSchemaParser.BuildOperation> merge(List<VoxelSchemaParser.BuildOperation> blocks,
+            int sizeX, int sizeY, int sizeZ) {
+        List<VoxelSchemaParser.BuildOperation> merged = new ArrayList<>();
+        List<String> states = new ArrayList<>();
+        Map<String, Integer> indices = new HashMap<>();
+        int[] grid = new int[Math.multiplyExact(Math.multiplyExact(sizeX, sizeY), sizeZ)];
+        Arrays.fill(grid, EMPTY);
+
+        for (VoxelSchemaParser.BuildOperation block : blocks) {
+            String state = block.getBlockData();
+            if (state.contains("door") && !state.contains("trapdoor")) {
+                merged.add(block);
+                continue;
+            }
+            Integer index = indices.get(state);
+            if (index == null) {
+                index = states.size();
+                states.add(state);
+                indices.put(state, index);
+            }
+            grid[(block.getX1() * sizeY + block.getY1()) * sizeZ + block.getZ1()] = index;
+        }
+
+        for (int x = 0; x < sizeX; x++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    int state = grid[(x * sizeY + y) * sizeZ + z];
+                    if (state == EMPTY)
+                        continue;
+
+                    // Grow along z, then x, then y, as far as every cell matches
+                    int endZ = z + 1;
+                    while (endZ < sizeZ && grid[(x * sizeY + y) * sizeZ + endZ] == state)
+                        endZ++;
+                    int endX = x + 1;
+                    while (endX < sizeX && matches(grid, state, endX, endX + 1, y, y + 1, z, endZ, sizeY, sizeZ))
+                        endX++;
+                    int endY = y + 1;
+                    while (endY < sizeY && matches(grid, state, x, endX, endY, endY + 1, z, endZ, sizeY, sizeZ))
+                        endY++;
+
+                    for (int bx = x; bx < endX; bx++) {
+                        for (int by = y; by < endY; by++) {
+                            Arrays.fill(grid, (bx * sizeY + by) * sizeZ + z, (bx * sizeY + by) * sizeZ + endZ, EMPTY);
+                        }
+                    }
+                    merged.add(toOperation(x, y, z, endX - 1, endY - 1, endZ - 1, states.get(state)));
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static boolean matches(int[] grid, int state, int fromX, int toX, int fromY, int toY, int fromZ, int toZ,
+            int sizeY, int sizeZ) {
+        for (int x = fromX; x < toX; x++) {
+            for (int y = fromY; y < toY; y++) {
+                int row = (x * sizeY + y) * sizeZ;
+                for (int z = fromZ; z < toZ; z++) {
+                    if (grid[row + z] != state)
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static VoxelSchemaParser.BuildOperation toOperation(int x1, int y1, int z1, int x2, int y2, int z2,
+            String state) {
+        int extended = (x2 > x1 ? 1 : 0) + (y2 > y1 ? 1 : 0) + (z2 > z1 ? 1 : 0);
+        VoxelSchemaParser.BuildOperation.BuildOperationBuilder builder = VoxelSchemaParser.BuildOperation.builder()
+                .x1(x1).y1(y1).z1(z1)
+                .blockData(state);
+        if (extended == 0)
+            return builder.pattern("single").build();
+        return builder.x2(x2).y2(y2).z2(z2)
+                .pattern(extended == 1 ? "line" : extended == 2 ? "flat" : "solid")
+                .build();
+    }
+}
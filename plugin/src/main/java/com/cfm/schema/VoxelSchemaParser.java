@@ -1,14 +1,19 @@
 package com.cfm.schema;
 
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Data
 public class VoxelSchemaParser {
@@ -20,7 +25,7 @@ public class VoxelSchemaParser {
         private final int x1, y1, z1;
         private final Integer x2, y2, z2;
         private final String blockData;
-        private final String pattern; // single, solid, hollow, box, line, flat, door, trapdoor, layer
+        private final String pattern; // single, solid, hollow, box, line, flat, door, trapdoor, layer, [hollow_]sphere/dome/cylinder/pyramid
 
         // Helper for backwards compatibility
         public int getX() {
@@ -70,145 +75,267 @@ public class VoxelSchemaParser {
         private final int x, y, z;
     }
 
-    /**
-     * Extract JSON from LLM response that may be wrapped in markdown code blocks
-     */
-    private static String extractJSON(String input) {
-        if (input == null || input.trim().isEmpty()) {
-            return input;
+    public static BuildSchema parseFullSchema(String json) {
+        if (json == null)
+            return BuildSchema.builder().operations(new ArrayList<>()).build();
+        try {
+            return parseFullSchema(new StringReader(json));
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
         }
+    }
 
-        String trimmed = input.trim();
+    public static BuildSchema parseFullSchema(Reader reader) throws IOException {
+        List<BuildOperation> operations = new ArrayList<>();
+        BuildMetadata metadata = parse(reader, operations::add);
+        return BuildSchema.builder()
+                .metadata(metadata)
+                .operations(operations)
+                .build();
+    }
 
-        // Check for triple backtick code blocks
-        if (trimmed.startsWith("```")) {
-            // Remove opening ```json or ```
-            int firstNewline = trimmed.indexOf('\n');
-            if (firstNewline > 0) {
-                trimmed = trimmed.substring(firstNewline + 1);
-            }
+    /**
+     * Pull-parses a schema, handing each operation to {@code consumer} as soon
+     * as it is read; nothing but the current operation is held. Text before
+     * the first '{' or '[' (such as an opening markdown fence from an LLM) and
+     * anything after the JSON value are ignored. Input with no JSON in it
+     * yields no operations.
+     *
+     * @return the schema's metadata, or null if it has none
+     */
+    public static BuildMetadata parse(Reader reader, Consumer<BuildOperation> consumer) throws IOException {
+        int first;
+        do {
+            first = reader.read();
+        } while (first >= 0 && first != '{' && first != '[');
+        if (first < 0)
+            return null;
+
+        JsonReader json = new JsonReader(new PrefixedReader((char) first, reader));
+        json.setLenient(true);
+        BuildMetadata metadata = null;
+        if (json.peek() == JsonToken.BEGIN_ARRAY) {
+            parseOperations(json, consumer);
+            return null;
+        }
 
-            // Remove closing ```
-            if (trimmed.endsWith("```")) {
-                trimmed = trimmed.substring(0, trimmed.lastIndexOf("```"));
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("metadata") && json.peek() == JsonToken.BEGIN_OBJECT) {
+                metadata = parseMetadata(json);
+            } else if (name.equals("blocks") && json.peek() == JsonToken.BEGIN_ARRAY) {
+                parseOperations(json, consumer);
+            } else {
+                json.skipValue();
             }
         }
+        // Whatever follows the root object, such as a closing fence, is never read
+        return metadata;
+    }
 
-        trimmed = trimmed.trim();
-
-        // Find the actual JSON object/array
-        int jsonStart = trimmed.indexOf('{');
-        if (jsonStart < 0) {
-            jsonStart = trimmed.indexOf('[');
+    private static BuildMetadata parseMetadata(JsonReader json) throws IOException {
+        BuildMetadata.BuildMetadataBuilder metaBuilder = BuildMetadata.builder();
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "name" -> metaBuilder.name(json.nextString());
+                case "description" -> metaBuilder.description(json.nextString());
+                case "workflow" -> metaBuilder.workflow(json.nextString());
+                case "region" -> metaBuilder.region(parseRegion(json));
+                default -> json.skipValue();
+            }
         }
+        json.endObject();
+        return metaBuilder.build();
+    }
 
-        if (jsonStart > 0) {
-            trimmed = trimmed.substring(jsonStart);
+    private static RegionBounds parseRegion(JsonReader json) throws IOException {
+        Vector3 min = new Vector3(0, 0, 0);
+        Vector3 max = new Vector3(0, 0, 0);
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("min") && json.peek() == JsonToken.BEGIN_OBJECT) {
+                min = parseVector(json);
+            } else if (name.equals("max") && json.peek() == JsonToken.BEGIN_OBJECT) {
+                max = parseVector(json);
+            } else {
+                json.skipValue();
+            }
         }
-
-        return trimmed;
+        json.endObject();
+        return new RegionBounds(min, max);
     }
 
-    public static BuildSchema parseFullSchema(String json) {
-        // Extract JSON from potential markdown wrapper
-        json = extractJSON(json);
-
-        JsonElement element = JsonParser.parseString(json);
-        List<BuildOperation> operations = new ArrayList<>();
-        BuildMetadata metadata = null;
-
-        if (element.isJsonObject()) {
-            JsonObject root = element.getAsJsonObject();
-
-            // Parse Metadata
-            if (root.has("metadata")) {
-                JsonObject metaObj = root.getAsJsonObject("metadata");
-                BuildMetadata.BuildMetadataBuilder metaBuilder = BuildMetadata.builder();
-
-                if (metaObj.has("name"))
-                    metaBuilder.name(metaObj.get("name").getAsString());
-                if (metaObj.has("description"))
-                    metaBuilder.description(metaObj.get("description").getAsString());
-                if (metaObj.has("workflow"))
-                    metaBuilder.workflow(metaObj.get("workflow").getAsString());
-
-                if (metaObj.has("region")) {
-                    JsonObject reg = metaObj.getAsJsonObject("region");
-                    Vector3 min = parseVector(reg.getAsJsonObject("min"));
-                    Vector3 max = parseVector(reg.getAsJsonObject("max"));
-                    metaBuilder.region(new RegionBounds(min, max));
-                }
-                metadata = metaBuilder.build();
+    private static Vector3 parseVector(JsonReader json) throws IOException {
+        int x = 0, y = 0, z = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "x" -> x = json.nextInt();
+                case "y" -> y = json.nextInt();
+                case "z" -> z = json.nextInt();
+                default -> json.skipValue();
             }
+        }
+        json.endObject();
+        return new Vector3(x, y, z);
+    }
 
-            // Parse Blocks (Operations)
-            if (root.has("blocks")) {
-                JsonArray blockArray = root.getAsJsonArray("blocks");
-                operations.addAll(parseOperations(blockArray));
+    private static void parseOperations(JsonReader json, Consumer<BuildOperation> consumer) throws IOException {
+        json.beginArray();
+        while (json.hasNext()) {
+            if (json.peek() != JsonToken.BEGIN_OBJECT) {
+                json.skipValue();
+                continue;
             }
-        } else if (element.isJsonArray()) {
-            operations.addAll(parseOperations(element.getAsJsonArray()));
+            consumer.accept(parseOperation(json));
         }
-
-        return BuildSchema.builder()
-                .metadata(metadata)
-                .operations(operations)
-                .build();
+        json.endArray();
     }
 
-    private static List<BuildOperation> parseOperations(JsonArray array) {
-        List<BuildOperation> ops = new ArrayList<>();
-        for (JsonElement item : array) {
-            if (item.isJsonObject()) {
-                JsonObject obj = item.getAsJsonObject();
-                BuildOperation.BuildOperationBuilder builder = BuildOperation.builder();
-
+    static BuildOperation parseOperation(JsonReader json) throws IOException {
+        BuildOperation.BuildOperationBuilder builder = BuildOperation.builder().pattern("single");
+        // "x" takes precedence over "x1" wherever it appears in the object
+        boolean shortX = false, shortY = false, shortZ = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.skipValue();
+                continue;
+            }
+            switch (name) {
                 // Position 1 (mandatory for all)
-                if (obj.has("x"))
-                    builder.x1(obj.get("x").getAsInt());
-                else if (obj.has("x1"))
-                    builder.x1(obj.get("x1").getAsInt());
+                case "x" -> {
+                    builder.x1(json.nextInt());
+                    shortX = true;
+                }
+                case "y" -> {
+                    builder.y1(json.nextInt());
+                    shortY = true;
+                }
+                case "z" -> {
+                    builder.z1(json.nextInt());
+                    shortZ = true;
+                }
+                case "x1" -> {
+                    int value = json.nextInt();
+                    if (!shortX)
+                        builder.x1(value);
+                }
+                case "y1" -> {
+                    int value = json.nextInt();
+                    if (!shortY)
+                        builder.y1(value);
+                }
+                case "z1" -> {
+                    int value = json.nextInt();
+                    if (!shortZ)
+                        builder.z1(value);
+                }
+                // Position 2 (optional)
+                case "x2" -> builder.x2(json.nextInt());
+                case "y2" -> builder.y2(json.nextInt());
+                case "z2" -> builder.z2(json.nextInt());
+                // Material/Type
+                case "type" -> builder.blockData(json.nextString());
+                case "pattern" -> builder.pattern(json.nextString());
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return builder.build();
+    }
 
-                if (obj.has("y"))
-                    builder.y1(obj.get("y").getAsInt());
-                else if (obj.has("y1"))
-                    builder.y1(obj.get("y1").getAsInt());
+    /**
+     * Puts back the one character consumed while looking for the start of the
+     * JSON, without copying the rest of the input.
+     */
+    private static class PrefixedReader extends Reader {
 
-                if (obj.has("z"))
-                    builder.z1(obj.get("z").getAsInt());
-                else if (obj.has("z1"))
-                    builder.z1(obj.get("z1").getAsInt());
+        private final Reader delegate;
+        private int prefix;
 
-                // Position 2 (optional)
-                if (obj.has("x2"))
-                    builder.x2(obj.get("x2").getAsInt());
-                if (obj.has("y2"))
-                    builder.y2(obj.get("y2").getAsInt());
-                if (obj.has("z2"))
-                    builder.z2(obj.get("z2").getAsInt());
+        PrefixedReader(char prefix, Reader delegate) {
+            this.prefix = prefix;
+            this.delegate = delegate;
+        }
 
-                // Material/Type
-                if (obj.has("type"))
-                    builder.blockData(obj.get("type").getAsString());
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            if (prefix >= 0) {
+                buffer[offset] = (char) prefix;
+                prefix = -1;
+                return 1;
+            }
+            return delegate.read(buffer, offset, length);
+        }
 
-                // Pattern
-                if (obj.has("pattern"))
-                    builder.pattern(obj.get("pattern").getAsString());
-                else
-                    builder.pattern("single");
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
 
-                ops.add(builder.build());
+    /**
+     * Inverse of {@link #parseFullSchema}, using the keys it reads.
+     */
+    public static String toJson(BuildSchema schema) {
+        JsonObject root = new JsonObject();
+        BuildMetadata metadata = schema.getMetadata();
+        if (metadata != null) {
+            JsonObject metaObj = new JsonObject();
+            if (metadata.getName() != null)
+                metaObj.addProperty("name", metadata.getName());
+            if (metadata.getDescription() != null)
+                metaObj.addProperty("description", metadata.getDescription());
+            if (metadata.getWorkflow() != null)
+                metaObj.addProperty("workflow", metadata.getWorkflow());
+            if (metadata.getRegion() != null) {
+                JsonObject reg = new JsonObject();
+                reg.add("min", toJson(metadata.getRegion().getMin()));
+                reg.add("max", toJson(metadata.getRegion().getMax()));
+                metaObj.add("region", reg);
             }
+            root.add("metadata", metaObj);
+        }
+
+        JsonArray blocks = new JsonArray();
+        for (BuildOperation op : schema.getOperations()) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("x1", op.getX1());
+            obj.addProperty("y1", op.getY1());
+            obj.addProperty("z1", op.getZ1());
+            if (op.getX2() != null)
+                obj.addProperty("x2", op.getX2());
+            if (op.getY2() != null)
+                obj.addProperty("y2", op.getY2());
+            if (op.getZ2() != null)
+                obj.addProperty("z2", op.getZ2());
+            if (op.getBlockData() != null)
+                obj.addProperty("type", op.getBlockData());
+            if (op.getPattern() != null)
+                obj.addProperty("pattern", op.getPattern());
+            blocks.add(obj);
         }
-        return ops;
+        root.add("blocks", blocks);
+        return root.toString();
     }
 
-    private static Vector3 parseVector(JsonObject obj) {
-        if (obj == null)
-            return new Vector3(0, 0, 0);
-        return new Vector3(
-                obj.get("x").getAsInt(),
-                obj.get("y").getAsInt(),
-                obj.get("z").getAsInt());
+    private static JsonObject toJson(Vector3 vector) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("x", vector.getX());
+        obj.addProperty("y", vector.getY());
+        obj.addProperty("z", vector.getZ());
+        return obj;
     }
 }
@@ -1,80 +1,224 @@
 package com.cfm.schema;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.cfm.CFM;
+import com.google.gson.stream.JsonWriter;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.Region;
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.World;
-import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WorldEditToVoxelParser {
 
-    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    // Chunks loaded, snapshotted and scanned at once; bounds export memory
+    private static final int CHUNKS_IN_FLIGHT = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService SCANNERS = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "CFM-Export-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Chunk snapshots have to be taken on the main thread, even for chunks that were already loaded
+    private static final Executor MAIN_THREAD = runnable -> Bukkit.getScheduler().runTask(CFM.getInstance(),
+            runnable);
+
+    /**
+     * Streams the selection as a schema to {@code out} without blocking the
+     * server. Touched chunks are loaded asynchronously and snapshotted on the
+     * main thread a window at a time, scanned in parallel off it, and written
+     * as they finish, so memory stays flat however large the selection is.
+     * The writer is flushed but not closed.
+     *
+     * @param compact merge same-state blocks into boxes with {@link VoxelBoxMerger}
+     *                instead of writing one operation per block; the merge needs the
+     *                whole selection, so this mode holds every block until the end
+     * @return the number of operations written
+     */
+    public static CompletableFuture<Long> exportRegion(World world, Region region, boolean compact, Writer out) {
+        Export export = new Export(world, region.getMinimumPoint(), region.getMaximumPoint(), compact, out);
+        try {
+            export.writeHeader();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return export.nextWindow();
+    }
+
+    /**
+     * Stops the scanner threads, abandoning any export still running.
+     */
+    public static void shutdown() {
+        SCANNERS.shutdownNow();
+    }
+
+    private static class Export {
+
+        private final World world;
+        private final BlockVector3 min, max;
+        private final int minY, maxY;
+        private final boolean compact;
+        private final JsonWriter json;
+        // Per-export palette: each distinct block state is formatted once and
+        // every voxel of that state shares the same string
+        private final Map<BlockData, String> palette = new ConcurrentHashMap<>();
+        private final int minChunkX, minChunkZ, chunksZ, chunkCount;
+        private final List<VoxelSchemaParser.BuildOperation> held = new ArrayList<>();
+
+        private int chunkCursor;
+        private long written;
+
+        Export(World world, BlockVector3 min, BlockVector3 max, boolean compact, Writer out) {
+            this.world = world;
+            this.min = min;
+            this.max = max;
+            this.minY = Math.max(min.getBlockY(), world.getMinHeight());
+            this.maxY = Math.min(max.getBlockY(), world.getMaxHeight() - 1);
+            this.compact = compact;
+            this.json = new JsonWriter(out);
+            this.minChunkX = min.getBlockX() >> 4;
+            this.minChunkZ = min.getBlockZ() >> 4;
+            this.chunksZ = (max.getBlockZ() >> 4) - minChunkZ + 1;
+            this.chunkCount = ((max.getBlockX() >> 4) - minChunkX + 1) * chunksZ;
+        }
+
+        void writeHeader() throws IOException {
+            json.beginObject();
+            json.name("metadata").beginObject();
+            json.name("name").value("Exported Build");
+            json.name("version").value("1.2.0");
+            json.name("workflow").value("default");
+            json.name("region").beginObject();
+            writeVector("min", 0, 0, 0);
+            writeVector("max", max.getBlockX() - min.getBlockX(), max.getBlockY() - min.getBlockY(),
+                    max.getBlockZ() - min.getBlockZ());
+            json.endObject();
+            json.endObject();
+            json.name("blocks").beginArray();
+        }
+
+        CompletableFuture<Long> nextWindow() {
+            if (chunkCursor >= chunkCount)
+                return CompletableFuture.supplyAsync(this::finish, SCANNERS);
+
+            int end = Math.min(chunkCursor + CHUNKS_IN_FLIGHT, chunkCount);
+            List<CompletableFuture<List<VoxelSchemaParser.BuildOperation>>> window = new ArrayList<>(
+                    end - chunkCursor);
+            for (int i = chunkCursor; i < end; i++) {
+                window.add(world.getChunkAtAsync(minChunkX + i / chunksZ, minChunkZ + i % chunksZ)
+                        .thenApplyAsync(chunk -> chunk.getChunkSnapshot(false, false, false), MAIN_THREAD)
+                        .thenApplyAsync(this::scanChunk, SCANNERS));
+            }
+            chunkCursor = end;
+
+            return CompletableFuture.allOf(window.toArray(new CompletableFuture[0])).thenCompose(done -> {
+                for (CompletableFuture<List<VoxelSchemaParser.BuildOperation>> chunk : window) {
+                    if (compact) {
+                        held.addAll(chunk.join());
+                    } else {
+                        writeAll(chunk.join());
+                    }
+                }
+                return nextWindow();
+            });
+        }
 
-    public static String convertRegionToJson(World world, Region region) {
-        BlockVector3 min = region.getMinimumPoint();
-        BlockVector3 max = region.getMaximumPoint();
+        private long finish() {
+            if (compact) {
+                writeAll(VoxelBoxMerger.merge(held, max.getBlockX() - min.getBlockX() + 1,
+                        max.getBlockY() - min.getBlockY() + 1, max.getBlockZ() - min.getBlockZ() + 1));
+                held.clear();
+            }
+            try {
+                json.endArray();
+                json.endObject();
+                json.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return written;
+        }
 
-        List<VoxelSchemaParser.BuildOperation> blocks = new ArrayList<>();
+        private List<VoxelSchemaParser.BuildOperation> scanChunk(ChunkSnapshot snapshot) {
+            int baseX = snapshot.getX() << 4, baseZ = snapshot.getZ() << 4;
+            int fromX = Math.max(min.getBlockX(), baseX), toX = Math.min(max.getBlockX(), baseX + 15);
+            int fromZ = Math.max(min.getBlockZ(), baseZ), toZ = Math.min(max.getBlockZ(), baseZ + 15);
 
-        for (int x = min.getBlockX(); x <= max.getBlockX(); x++) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); y++) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); z++) {
-                    Block block = world.getBlockAt(x, y, z);
-                    if (!block.getType().isAir()) {
-                        String blockData = block.getBlockData().getAsString();
-                        // Simplify name to include brackets if present
-                        String type = blockData.replace("minecraft:", "");
-                        if (type.contains("[")) {
-                            type = "minecraft:" + type;
-                        } else {
-                            type = block.getType().getKey().toString();
-                        }
+            List<VoxelSchemaParser.BuildOperation> blocks = new ArrayList<>();
+            for (int x = fromX; x <= toX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = fromZ; z <= toZ; z++) {
+                        BlockData data = snapshot.getBlockData(x - baseX, y, z - baseZ);
+                        if (data.getMaterial().isAir())
+                            continue;
 
                         blocks.add(VoxelSchemaParser.BuildOperation.builder()
                                 .x1(x - min.getBlockX())
                                 .y1(y - min.getBlockY())
                                 .z1(z - min.getBlockZ())
-                                .blockData(type)
+                                .blockData(palette.computeIfAbsent(data, WorldEditToVoxelParser::formatBlockData))
                                 .pattern("single")
                                 .build());
                     }
                 }
             }
+            return blocks;
         }
 
-        // Construct sophisticated schema
-        Map<String, Object> root = new HashMap<>();
-
-        Map<String, Object> metadata = new HashMap<>();
-        metadata.put("name", "Exported Build");
-        metadata.put("version", "1.2.0");
-        metadata.put("workflow", "default");
-
-        Map<String, Object> regionMap = new HashMap<>();
-        regionMap.put("min", createVectorMap(0, 0, 0)); // Relative min
-        regionMap.put("max", createVectorMap(
-                max.getBlockX() - min.getBlockX(),
-                max.getBlockY() - min.getBlockY(),
-                max.getBlockZ() - min.getBlockZ())); // Relative max
-
-        metadata.put("region", regionMap);
-
-        root.put("metadata", metadata);
-        root.put("blocks", blocks);
+        private void writeAll(List<VoxelSchemaParser.BuildOperation> operations) {
+            try {
+                for (VoxelSchemaParser.BuildOperation op : operations) {
+                    json.beginObject();
+                    json.name("x1").value(op.getX1());
+                    json.name("y1").value(op.getY1());
+                    json.name("z1").value(op.getZ1());
+                    if (op.getX2() != null) {
+                        json.name("x2").value(op.getX2());
+                        json.name("y2").value(op.getY2());
+                        json.name("z2").value(op.getZ2());
+                    }
+                    // "type" is the key VoxelSchemaParser reads back
+                    json.name("type").value(op.getBlockData());
+                    json.name("pattern").value(op.getPattern());
+                    json.endObject();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            written += operations.size();
+        }
 
-        return gson.toJson(root);
+        private void writeVector(String name, int x, int y, int z) throws IOException {
+            json.name(name).beginObject();
+            json.name("x").value(x);
+            json.name("y").value(y);
+            json.name("z").value(z);
+            json.endObject();
+        }
     }
 
-    private static Map<String, Integer> createVectorMap(int x, int y, int z) {
-        Map<String, Integer> map = new HashMap<>();
-        map.put("x", x);
-        map.put("y", y);
-        map.put("z", z);
-        return map;
+    private static String formatBlockData(BlockData data) {
+        String blockData = data.getAsString();
+        // Simplify name to include brackets if present
+        String type = blockData.replace("minecraft:", "");
+        if (type.contains("[")) {
+            return "minecraft:" + type;
+        }
+        return data.getMaterial().getKey().toString();
     }
 }
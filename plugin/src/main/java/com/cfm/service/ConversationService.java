@@ -3,47 +3,142 @@ package com.cfm.service;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import com.cfm.CFM;
 import com.cfm.ai.AIClient;
 import com.cfm.ai.PromptBuilder;
+import com.cfm.ai.ResponseCache;
 import com.cfm.database.dao.BuildDAO;
 import com.cfm.database.dao.ConversationDAO;
 import com.cfm.model.Build;
 import com.cfm.model.Conversation;
-import com.cfm.schema.VoxelSchemaParser;
 import com.cfm.util.Logger;
+import com.cfm.worldedit.BuildCache;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sk89q.worldedit.math.BlockVector3;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 
 public class ConversationService {
 
+    /**
+     * Conversation metadata recording where its builds are placed, so later
+     * iterations land on top of earlier ones.
+     */
+    public static String createMetadata(String world, BlockVector3 origin) {
+        JsonObject metadata = new JsonObject();
+        metadata.addProperty("world", world);
+        JsonObject position = new JsonObject();
+        position.addProperty("x", origin.getX());
+        position.addProperty("y", origin.getY());
+        position.addProperty("z", origin.getZ());
+        metadata.add("origin", position);
+        return metadata.toString();
+    }
+
+    /**
+     * @return the origin stored by {@link #createMetadata}, or null if there is none
+     */
+    public static BlockVector3 getOrigin(Conversation conversation) {
+        JsonObject metadata = parseMetadata(conversation);
+        if (metadata == null || !metadata.has("origin"))
+            return null;
+        JsonObject position = metadata.getAsJsonObject("origin");
+        return BlockVector3.at(position.get("x").getAsInt(), position.get("y").getAsInt(),
+                position.get("z").getAsInt());
+    }
+
+    public static String getWorld(Conversation conversation) {
+        JsonObject metadata = parseMetadata(conversation);
+        return metadata != null && metadata.has("world") ? metadata.get("world").getAsString() : null;
+    }
+
+    private static JsonObject parseMetadata(Conversation conversation) {
+        if (conversation.getMetadata() == null || conversation.getMetadata().isEmpty())
+            return null;
+        try {
+            return JsonParser.parseString(conversation.getMetadata()).getAsJsonObject();
+        } catch (Exception e) {
+            Logger.warn("Invalid metadata on conversation #" + conversation.getId());
+            return null;
+        }
+    }
+
     public CompletableFuture<String> sendMessage(int conversationId, String userMessage) {
+        return ask(conversationId, userMessage, null).thenApply(Reply::getText);
+    }
+
+    /**
+     * Sends a message and parses the response once, through the
+     * {@link BuildCache}, saving it as the next iteration if it is a build.
+     * The iteration stays pending until a placement of it finishes.
+     *
+     * @param onChunk if not null, the response is streamed and each piece is
+     *                handed to it as it arrives; the build is still saved once
+     *                the whole response is in
+     */
+    public CompletableFuture<Reply> ask(int conversationId, String userMessage, Consumer<String> onChunk) {
         Conversation conv = CFM.getInstance().getConversationDAO().getConversation(conversationId);
         if (conv == null) {
-            return CompletableFuture.completedFuture("Error: Conversation not found.");
+            return CompletableFuture.completedFuture(new Reply("Error: Conversation not found.", null, 0));
         }
 
-        // Get history (simplified for now)
-        List<String> history = PromptBuilder.buildPrompt(userMessage, null);
-
-        return CFM.getInstance().getAiClient().chat(history).thenApply(response -> {
-            if (response != null) {
-                // Check if response contains a build schema
-                try {
-                    VoxelSchemaParser.BuildSchema schema = VoxelSchemaParser.parseFullSchema(response);
-                    if (!schema.getOperations().isEmpty()) {
-                        // Save build for this conversation
-                        Build build = Build.builder()
-                                .conversationId(conversationId)
-                                .schemaData(response)
-                                .iterationNumber(1) // TODO: track iterations
-                                .build();
-                        CFM.getInstance().getBuildDAO().createBuild(build);
-                    }
-                } catch (Exception e) {
-                    // Not a build schema, just a message
-                }
-            }
-            return response;
+        // The latest iteration is the context the AI refines
+        List<Build> builds = CFM.getInstance().getBuildDAO().getBuildsByConversation(conversationId);
+        Build previous = builds.isEmpty() ? null : builds.get(builds.size() - 1);
+        int iteration = previous == null ? 1 : previous.getIterationNumber() + 1;
+        List<String> history = PromptBuilder.buildPrompt(userMessage,
+                previous != null ? previous.getSchemaData() : null);
+
+        AIClient client = CFM.getInstance().getAiClient();
+        ResponseCache cache = CFM.getInstance().getResponseCache();
+        // A response refining an earlier iteration depends on it, so only fresh prompts are cached
+        String cacheKey = previous == null ? cache.keyFor(userMessage) : null;
+        AtomicBoolean hit = new AtomicBoolean();
+
+        CompletableFuture<String> reply = CompletableFuture.supplyAsync(
+                () -> cacheKey != null ? cache.get(cacheKey) : null, AIClient.getExecutor())
+                .thenCompose(cached -> {
+                    if (cached == null)
+                        return onChunk == null ? client.chat(history) : client.chatStream(history, onChunk);
+                    Logger.debug("Answered conversation #" + conversationId + " from the response cache");
+                    hit.set(true);
+                    if (onChunk != null)
+                        onChunk.accept(cached);
+                    return CompletableFuture.completedFuture(cached);
+                });
+        return reply.thenApply(response -> {
+            BuildCache.Entry build = response != null ? BuildCache.get(response) : null;
+            if (build == null || !build.isBuild())
+                return new Reply(response, null, 0);
+            if (cacheKey != null && !hit.get())
+                cache.put(cacheKey, response);
+
+            // Saved as pending; placement marks it completed once it is fully in the world
+            int buildId = CFM.getInstance().getBuildDAO().createBuild(Build.builder()
+                    .conversationId(conversationId)
+                    .prompt(userMessage)
+                    .schemaData(response)
+                    .iterationNumber(iteration)
+                    .status(Build.BuildStatus.PENDING)
+                    .build());
+            return new Reply(response, build, buildId);
         });
     }
+
+    /**
+     * An AI response, with its parsed build if it holds one.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Reply {
+        private final String text;
+        // Null when the response is not a build
+        private final BuildCache.Entry build;
+        // Row the build was saved as, or 0 if there is none
+        private final int buildId;
+    }
 }
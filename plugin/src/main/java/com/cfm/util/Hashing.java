@@ -0,0 +1,28 @@
+package com.cfm.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content hashes used as cache keys.
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * Hex SHA-256 of the UTF-8 bytes of {@code text}.
+     */
+    public static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
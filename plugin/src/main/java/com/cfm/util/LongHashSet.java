@@ -0,0 +1,117 @@
+package com.cfm.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing (linear probing) set of primitive longs. No boxing and a
+ * single backing array, so millions of packed positions cost 8-16 bytes each.
+ * Not thread-safe.
+ */
+public class LongHashSet {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // 0 marks an empty slot; the key 0 itself is tracked separately
+    private long[] table;
+    private boolean hasZero;
+    private int size;
+    private int resizeAt;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        table = new long[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * @return true if the key was not already present
+     */
+    public boolean add(long key) {
+        if (key == 0) {
+            if (hasZero)
+                return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int slot = mix(key) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        if (++size >= resizeAt)
+            rehash(table.length << 1);
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0)
+            return hasZero;
+        int mask = table.length - 1;
+        int slot = mix(key) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Copies the keys into a new array, in no particular order.
+     */
+    public long[] toArray() {
+        long[] out = new long[size];
+        int i = 0;
+        if (hasZero)
+            out[i++] = 0;
+        for (long key : table) {
+            if (key != 0)
+                out[i++] = key;
+        }
+        return out;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0);
+        hasZero = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+        int mask = capacity - 1;
+        for (long key : old) {
+            if (key == 0)
+                continue;
+            int slot = mix(key) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = key;
+        }
+    }
+
+    static int mix(long key) {
+        // Stafford variant 13 finalizer, spreads packed coordinates across the table
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (key ^ (key >>> 31));
+    }
+}
@@ -0,0 +1,160 @@
+package com.cfm.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing (linear probing) map from primitive long to int. Keys and
+ * values live in two parallel arrays; no boxing, no entry objects.
+ * Not thread-safe.
+ */
+public class LongIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // 0 marks an empty slot; the key 0 itself is tracked separately
+    private long[] keys;
+    private int[] values;
+    private boolean hasZero;
+    private int zeroValue;
+    private int size;
+    private int resizeAt;
+    private final int missingValue;
+
+    /**
+     * @param missingValue returned by {@link #get(long)} for absent keys
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+        this.missingValue = missingValue;
+    }
+
+    public int get(long key) {
+        if (key == 0)
+            return hasZero ? zeroValue : missingValue;
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0)
+            return hasZero;
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return the previous value, or the missing value if the key was absent
+     */
+    public int put(long key, int value) {
+        if (key == 0) {
+            int previous = hasZero ? zeroValue : missingValue;
+            if (!hasZero)
+                size++;
+            hasZero = true;
+            zeroValue = value;
+            return previous;
+        }
+        int mask = keys.length - 1;
+        int slot = LongHashSet.mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt)
+            rehash(keys.length << 1);
+        return missingValue;
+    }
+
+    /**
+     * Adds {@code delta} to the value for the key, treating absent keys as 0.
+     */
+    public int increment(long key, int delta) {
+        int current = get(key);
+        int next = (current == missingValue ? 0 : current) + delta;
+        put(key, next);
+        return next;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visits every entry, in no particular order.
+     */
+    public void forEach(Visitor visitor) {
+        if (hasZero)
+            visitor.accept(0, zeroValue);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0)
+                visitor.accept(keys[i], values[i]);
+        }
+    }
+
+    public long[] keys() {
+        long[] out = new long[size];
+        int i = 0;
+        if (hasZero)
+            out[i++] = 0;
+        for (long key : keys) {
+            if (key != 0)
+                out[i++] = key;
+        }
+        return out;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        hasZero = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == 0)
+                continue;
+            int slot = LongHashSet.mix(key) & mask;
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = key;
+            values[slot] = oldValues[i];
+        }
+    }
+
+    @FunctionalInterface
+    public interface Visitor {
+        void accept(long key, int value);
+    }
+}
@@ -0,0 +1,42 @@
+package com.cfm.util;
+
+/**
+ * Packs block coordinates into a single long, using the same layout as
+ * Minecraft's BlockPos: 26 bits of x, 26 bits of z and 12 bits of y.
+ */
+public final class PackedPos {
+
+    private PackedPos() {
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((x & 0x3FFFFFFL) << 38) | ((z & 0x3FFFFFFL) << 12) | (y & 0xFFFL);
+    }
+
+    public static int x(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int y(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int z(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    public static long offset(long packed, int dx, int dy, int dz) {
+        return pack(x(packed) + dx, y(packed) + dy, z(packed) + dz);
+    }
+
+    /**
+     * Key of the chunk column containing the block, chunk x in the high half.
+     */
+    public static long chunkKey(long packed) {
+        return chunkKey(x(packed) >> 4, z(packed) >> 4);
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+}
@@ -1,13 +1,29 @@
 package com.cfm.web;
 
 import com.cfm.CFM;
+import com.cfm.ai.AIBusyException;
 import com.cfm.model.Conversation;
+import com.cfm.schema.WorldEditToVoxelParser;
 import com.cfm.service.ConversationService;
 import com.cfm.util.Logger;
+import com.cfm.worldedit.RollbackJob;
+import com.cfm.worldedit.WorldEditSelectionHelper;
 
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
 import io.javalin.Javalin;
 import io.javalin.http.staticfiles.Location;
 import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
 
 public class WebServer {
 
@@ -76,7 +92,13 @@ public class WebServer {
             int id = Integer.parseInt(ctx.pathParam("id"));
             String message = ctx.bodyAsClass(MessageRequest.class).getMessage();
             ctx.future(() -> conversationService.sendMessage(id, message)
-                    .thenApply(res -> ctx.json("{\"response\": \"" + res + "\"}")));
+                    .thenApply(res -> ctx.json("{\"response\": \"" + res + "\"}"))
+                    .exceptionally(error -> {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        if (!(cause instanceof AIBusyException))
+                            throw new CompletionException(cause);
+                        return ctx.status(429).result(cause.getMessage());
+                    }));
         });
 
         // Builds
@@ -94,6 +116,66 @@ public class WebServer {
             int id = Integer.parseInt(ctx.pathParam("id"));
             ctx.json(CFM.getInstance().getBuildDAO().getBuild(id));
         });
+
+        // Placement queue, like /cfm queue
+        app.get("/api/queue", ctx -> ctx.json(CFM.getInstance().getPlacementScheduler().getQueue()));
+
+        // Rolls back the player's most recent build, like /cfm undo
+        app.post("/api/undo", ctx -> {
+            String userUuid = ctx.queryParam("user_uuid");
+            if (userUuid == null) {
+                ctx.status(400).result("Missing user_uuid");
+                return;
+            }
+            UUID ownerId;
+            try {
+                ownerId = UUID.fromString(userUuid);
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).result("Invalid user_uuid");
+                return;
+            }
+            RollbackJob job = CFM.getInstance().getUndoManager().undo(ownerId);
+            if (job == null) {
+                ctx.status(404).result("Nothing to undo");
+                return;
+            }
+            ctx.status(202).json("{\"job_id\": " + job.getId() + ", \"blocks\": " + job.getTotalBlocks() + "}");
+        });
+
+        // Streams a region of a world as a schema, like /cfm parse
+        app.get("/api/export", ctx -> {
+            World world = Bukkit.getWorld(ctx.queryParamAsClass("world", String.class).getOrDefault("world"));
+            if (world == null) {
+                ctx.status(404).result("Unknown world");
+                return;
+            }
+            int x1 = ctx.queryParamAsClass("x1", Integer.class).get();
+            int y1 = ctx.queryParamAsClass("y1", Integer.class).get();
+            int z1 = ctx.queryParamAsClass("z1", Integer.class).get();
+            int x2 = ctx.queryParamAsClass("x2", Integer.class).get();
+            int y2 = ctx.queryParamAsClass("y2", Integer.class).get();
+            int z2 = ctx.queryParamAsClass("z2", Integer.class).get();
+            int minY = Math.max(world.getMinHeight(), Math.min(y1, y2));
+            int maxY = Math.min(world.getMaxHeight() - 1, Math.max(y1, y2));
+            if (minY > maxY) {
+                ctx.status(400).result("Region is outside the world's height range");
+                return;
+            }
+            // Same cap as /cfm parse; each side is checked first so the product cannot overflow
+            long width = Math.abs((long) x2 - x1) + 1;
+            long length = Math.abs((long) z2 - z1) + 1;
+            int limit = WorldEditSelectionHelper.MAX_SELECTION_VOLUME;
+            if (width > limit || length > limit || width * length * (maxY - minY + 1) > limit) {
+                ctx.status(400).result("Region is too large, the limit is " + limit + " blocks");
+                return;
+            }
+            Region region = new CuboidRegion(BlockVector3.at(x1, minY, z1), BlockVector3.at(x2, maxY, z2));
+            boolean compact = ctx.queryParamAsClass("compact", Boolean.class).getOrDefault(false);
+
+            ctx.contentType("application/json");
+            Writer out = new BufferedWriter(new OutputStreamWriter(ctx.outputStream(), StandardCharsets.UTF_8));
+            ctx.future(() -> WorldEditToVoxelParser.exportRegion(world, region, compact, out));
+        });
     }
 
     public void stop() {
@@ -0,0 +1,62 @@
+package com.cfm.worldedit;
+
+import com.sk89q.worldedit.world.block.BlockState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-build table of distinct block states. Voxels refer to states by their
+ * int index so the placement pipeline never stores a BlockState per block.
+ */
+public class BlockPalette {
+
+    private static final int UNKNOWN = -2;
+    private static final int NONE = -1;
+
+    private final List<BlockState> states = new ArrayList<>();
+    private final Map<BlockState, Integer> indices = new HashMap<>();
+    // Lazily computed index of the matching upper door half, NONE if not a lower door
+    private int[] upperDoor = new int[0];
+
+    public synchronized int indexOf(BlockState state) {
+        Integer index = indices.get(state);
+        if (index != null)
+            return index;
+        int next = states.size();
+        states.add(state);
+        indices.put(state, next);
+        return next;
+    }
+
+    public synchronized BlockState get(int index) {
+        return states.get(index);
+    }
+
+    public synchronized int size() {
+        return states.size();
+    }
+
+    /**
+     * Index of the upper half for a lower door state, or -1 if the state at
+     * {@code index} is not the lower half of a door.
+     */
+    public synchronized int upperDoorIndex(int index) {
+        if (index >= upperDoor.length) {
+            int oldLength = upperDoor.length;
+            upperDoor = Arrays.copyOf(upperDoor, Math.max(states.size(), index + 1));
+            Arrays.fill(upperDoor, oldLength, upperDoor.length, UNKNOWN);
+        }
+        if (upperDoor[index] == UNKNOWN) {
+            BlockState state = states.get(index);
+            BlockState upper = BlockPlacementEngine.isLowerDoor(state)
+                    ? BlockPlacementEngine.getUpperDoorState(state)
+                    : null;
+            upperDoor[index] = upper != null ? indexOf(upper) : NONE;
+        }
+        return upperDoor[index];
+    }
+}
@@ -1,99 +1,150 @@
 package com.cfm.worldedit;
 
+import com.cfm.CFM;
 import com.cfm.schema.VoxelSchemaParser;
 import com.cfm.util.Logger;
-import com.sk89q.worldedit.EditSession;
-import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.cfm.util.LongHashSet;
+import com.cfm.util.PackedPos;
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.bukkit.BukkitAdapter;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.world.block.BlockState;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
-import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.block.data.MultipleFacing;
 import org.bukkit.block.data.Bisected;
 import org.bukkit.block.data.type.Door;
+import org.bukkit.block.data.type.Wall;
 import org.bukkit.entity.Player;
-import org.bukkit.plugin.Plugin;
 
 import java.util.*;
 
 public class BlockPlacementEngine {
 
-    private static final Random RANDOM = new Random();
+    private static final BlockFace[] WALL_FACES = { BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH,
+            BlockFace.WEST };
 
-    public static void placeBuild(Player player, List<VoxelSchemaParser.BuildOperation> operations,
+    /**
+     * Checks the build's estimated cost against the admission limits, compiles
+     * it through {@link BuildCompiler} and hands the result to the
+     * {@link PlacementScheduler}, which writes it over the following ticks.
+     *
+     * @throws BuildRejectedException if the build is over the per-build limits
+     */
+    public static PlacementJob placeBuild(Player player, List<VoxelSchemaParser.BuildOperation> operations,
             BlockVector3 origin) {
-        World world = player.getWorld();
-        com.sk89q.worldedit.world.World weWorld = BukkitAdapter.adapt(world);
-        Set<BlockVector3> affectedPositions = new HashSet<>();
-
-        // Phase 1: Place all blocks via WorldEdit
-        try (EditSession editSession = WorldEdit.getInstance().newEditSession(weWorld)) {
-            for (VoxelSchemaParser.BuildOperation op : operations) {
-                // Skip explicit upper doors if we are auto-generating them from lower doors
-                // (Optional: can keep if we want to trust LLM, but user requested we handle it)
-                if (op.getBlockData().contains("half=upper") && op.getBlockData().contains("door")) {
-                    continue;
-                }
+        return placeBuild(player, operations, origin, BuildRandom.forOperations(operations));
+    }
 
-                List<PlacementRecord> records = handleOperation(editSession, op, origin, weWorld);
-                for (PlacementRecord record : records) {
-                    affectedPositions.add(record.position);
+    public static PlacementJob placeBuild(Player player, List<VoxelSchemaParser.BuildOperation> operations,
+            BlockVector3 origin, BuildRandom random) {
+        PlacementScheduler.Admission admission = admit(player, operations, origin);
+        return submit(player, BuildCompiler.compile(operations, random), origin, admission, 0);
+    }
 
-                    // AUTO-DOOR LOGIC: If we placed a lower door, automatically place the upper
-                    // half
-                    if (isLowerDoor(record.state)) {
-                        BlockVector3 upperPos = record.position.add(0, 1, 0);
-                        BlockState upperState = getUpperDoorState(record.state);
-                        if (upperState != null) {
-                            editSession.setBlock(upperPos, upperState);
-                            affectedPositions.add(upperPos);
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Logger.error("Failed to place build via WorldEdit", e);
-            return;
-        }
+    /**
+     * Places a build that has already been compiled from {@code operations},
+     * such as a confirmed preview. Admission is checked again since the queue
+     * may have changed in the meantime.
+     *
+     * @param buildId build row marked completed once the job is, or 0
+     */
+    public static PlacementJob placeBuild(Player player, List<VoxelSchemaParser.BuildOperation> operations,
+            BlockVector3 origin, CompiledBuild build, int buildId) {
+        PlacementScheduler.Admission admission = admit(player, operations, origin);
+        return submit(player, build, origin, admission, buildId);
+    }
 
-        // Phase 2: Connection Fixes & Physics
-        Plugin plugin = Bukkit.getPluginManager().getPlugin("CFM");
-        if (plugin != null) {
-            Bukkit.getScheduler().runTask(plugin, () -> {
-                Set<BlockVector3> toUpdate = new HashSet<>(affectedPositions);
+    /**
+     * Places a parsed build from the {@link BuildCache}, compiling it only if
+     * it has not been compiled with {@code random} before.
+     *
+     * @param buildId build row marked completed once the job is, or 0
+     */
+    public static PlacementJob placeBuild(Player player, BuildCache.Entry build, BlockVector3 origin,
+            BuildRandom random, int buildId) {
+        PlacementScheduler.Admission admission = admit(player, build.getOperations(), origin);
+        return submit(player, build.compile(random), origin, admission, buildId);
+    }
 
-                // Add neighbors for connection update
-                for (BlockVector3 pos : affectedPositions) {
-                    toUpdate.add(pos.add(1, 0, 0));
-                    toUpdate.add(pos.add(-1, 0, 0));
-                    toUpdate.add(pos.add(0, 0, 1));
-                    toUpdate.add(pos.add(0, 0, -1));
-                }
+    /**
+     * Places a new iteration of a build over the previous one at the same
+     * origin, writing only the voxels that differ (see {@link BuildDiff}).
+     * Both iterations must be compiled with the same {@code random} they were
+     * or will be placed with; the cache usually has the previous one already.
+     * {@code previousBuild} must be fully placed, or the diff leaves a broken build.
+     * <p>
+     * Voxels the new iteration drops get back what the undo journals of the
+     * earlier iterations ({@code iterationIds}) recorded before the first of
+     * them wrote there, or air once those journals are out of the history.
+     * Reads journals from disk, so keep this off the main thread.
+     */
+    public static PlacementJob placeIteration(Player player, BuildCache.Entry previousBuild, BuildCache.Entry build,
+            BlockVector3 origin, BuildRandom random, int buildId, Set<Integer> iterationIds) {
+        // The new iteration as a whole still has to be within the per-build limits
+        BuildCostEstimator.Estimate estimate = BuildCostEstimator.estimate(build.getOperations(), origin);
+        admit(player, estimate);
+
+        CompiledBuild previous = previousBuild.compile(random);
+        CompiledBuild next = build.compile(random);
+        int ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        CompiledBuild diff = BuildDiff.between(previous, next, removed -> {
+            LongHashSet positions = new LongHashSet(removed.size());
+            for (long position : removed.toArray()) {
+                positions.add(PackedPos.offset(position, ox, oy, oz));
+            }
+            Map<Long, BlockState> found = CFM.getInstance().getUndoManager()
+                    .findOriginalStates(player.getUniqueId(), iterationIds, positions);
+            Map<Long, BlockState> original = new HashMap<>(found.size() * 2);
+            found.forEach((position, state) -> original.put(PackedPos.offset(position, -ox, -oy, -oz), state));
+            return original;
+        });
+        Logger.debug("Iteration diff for " + player.getName() + ": " + diff.getBlockCount() + " of "
+                + next.getBlockCount() + " blocks changed");
+
+        // Queue pressure is judged on what is actually written
+        PlacementScheduler.Admission admission = CFM.getInstance().getPlacementScheduler().checkAdmission(
+                player.getUniqueId(), new BuildCostEstimator.Estimate(diff.getBlockCount(), estimate.getChunks()));
+        return submit(player, diff, origin, admission, buildId);
+    }
 
-                for (BlockVector3 pos : toUpdate) {
-                    try {
-                        org.bukkit.Location loc = new org.bukkit.Location(world, pos.getX(), pos.getY(), pos.getZ());
-                        Block block = loc.getBlock();
+    /**
+     * Places a build compiled by something other than {@link BuildCompiler},
+     * such as an imported schematic.
+     */
+    public static PlacementJob placeBuild(Player player, CompiledBuild build, BlockVector3 origin) {
+        PlacementScheduler.Admission admission = admit(player, BuildCostEstimator.estimate(build, origin));
+        return submit(player, build, origin, admission, 0);
+    }
 
-                        // Fix visual connections for Fences/Panes/etc.
-                        if (isConnectable(block.getType())) {
-                            fixVisualConnections(block);
-                        }
+    static PlacementScheduler.Admission admit(Player player, List<VoxelSchemaParser.BuildOperation> operations,
+            BlockVector3 origin) {
+        return admit(player, BuildCostEstimator.estimate(operations, origin));
+    }
 
-                        // Force physics update
-                        block.getState().update(true, true);
-                    } catch (Exception e) {
-                    }
-                }
-            });
+    private static PlacementScheduler.Admission admit(Player player, BuildCostEstimator.Estimate estimate) {
+        PlacementScheduler.Admission admission = CFM.getInstance().getPlacementScheduler()
+                .checkAdmission(player.getUniqueId(), estimate);
+        if (admission.getDecision() == PlacementScheduler.Admission.Decision.REJECT) {
+            Logger.debug("Rejected build for " + player.getName() + ": " + admission.getReason());
+            throw new BuildRejectedException(admission.getReason());
         }
-        Logger.info("Build placed for player " + player.getName());
+        return admission;
+    }
+
+    private static PlacementJob submit(Player player, CompiledBuild build, BlockVector3 origin,
+            PlacementScheduler.Admission admission, int buildId) {
+        PlacementJob job = new PlacementJob(player, build, origin);
+        job.setAdmission(admission);
+        job.setBuildId(buildId);
+        CFM.getInstance().getPlacementScheduler().submit(job);
+        Logger.debug("Queued placement job #" + job.getId() + " (" + build.getVoxels().size() + " voxels, "
+                + build.getRegions().size() + " region fills) for "
+                + player.getName() + "; block cache " + BlockStateCache.getStats());
+        return job;
     }
 
     // --- HELPER METHODS ---
@@ -101,7 +152,7 @@ public class BlockPlacementEngine {
     /**
      * Checks if the state represents the lower half of a door.
      */
-    private static boolean isLowerDoor(BlockState state) {
+    static boolean isLowerDoor(BlockState state) {
         String id = state.getBlockType().id();
         if (!id.contains("door") || id.contains("trapdoor"))
             return false;
@@ -117,7 +168,7 @@ public class BlockPlacementEngine {
     /**
      * Creates the matching Upper Door state for a given Lower Door state.
      */
-    private static BlockState getUpperDoorState(BlockState lowerState) {
+    static BlockState getUpperDoorState(BlockState lowerState) {
         try {
             BlockData lowerData = BukkitAdapter.adapt(lowerState);
             if (lowerData instanceof Door) {
@@ -130,13 +181,13 @@ public class BlockPlacementEngine {
         return null;
     }
 
-    private static boolean isConnectable(Material mat) {
+    static boolean isConnectable(Material mat) {
         String name = mat.name();
         return name.contains("FENCE") || name.contains("GLASS_PANE") ||
                 name.contains("WALL") || name.contains("IRON_BARS");
     }
 
-    private static void fixVisualConnections(Block block) {
+    static void fixVisualConnections(Block block) {
         BlockData data = block.getBlockData();
         if (data instanceof MultipleFacing) {
             MultipleFacing facing = (MultipleFacing) data;
@@ -156,13 +207,44 @@ public class BlockPlacementEngine {
             }
             if (changed)
                 block.setBlockData(facing, true);
+        } else if (data instanceof Wall wall) {
+            boolean[] connected = new boolean[WALL_FACES.length];
+            for (int f = 0; f < WALL_FACES.length; f++) {
+                connected[f] = shouldConnect(block, WALL_FACES[f]);
+            }
+            connectWall(wall, connected);
+            if (!wall.equals(block.getBlockData()))
+                block.setBlockData(wall, true);
+        }
+    }
+
+    /**
+     * Sets a wall's sides from {@code connected} (north, east, south, west).
+     * Sides that stay connected keep their height. Like vanilla, the post
+     * is left out only when the wall runs straight through.
+     */
+    static void connectWall(Wall wall, boolean[] connected) {
+        for (int f = 0; f < WALL_FACES.length; f++) {
+            if (!connected[f]) {
+                wall.setHeight(WALL_FACES[f], Wall.Height.NONE);
+            } else if (wall.getHeight(WALL_FACES[f]) == Wall.Height.NONE) {
+                wall.setHeight(WALL_FACES[f], Wall.Height.LOW);
+            }
         }
+        boolean northSouth = connected[0] && connected[2] && !connected[1] && !connected[3];
+        boolean eastWest = connected[1] && connected[3] && !connected[0] && !connected[2];
+        wall.setUp(!northSouth && !eastWest);
     }
 
     private static boolean shouldConnect(Block source, BlockFace face) {
-        Block neighbor = source.getRelative(face);
-        Material sourceMat = source.getType();
-        Material targetMat = neighbor.getType();
+        return shouldConnect(source.getType(), source.getRelative(face).getType());
+    }
+
+    /**
+     * Connection rule on materials alone, so it can also run off the main thread
+     * against the in-memory voxel model.
+     */
+    static boolean shouldConnect(Material sourceMat, Material targetMat) {
         if (targetMat.isAir())
             return false;
         if (sourceMat == targetMat)
@@ -183,80 +265,13 @@ public class BlockPlacementEngine {
         return false;
     }
 
-    private static List<PlacementRecord> handleOperation(EditSession editSession, VoxelSchemaParser.BuildOperation op,
-            BlockVector3 origin, com.sk89q.worldedit.world.World weWorld) throws MaxChangedBlocksException {
-        List<PlacementRecord> records = new ArrayList<>();
-        String pattern = op.getPattern() != null ? op.getPattern().toLowerCase() : "single";
-
-        WeightedPalette palette = new WeightedPalette(op.getBlockData());
-        if (palette.isEmpty())
-            return records;
-
-        int x1 = op.getX1(), y1 = op.getY1(), z1 = op.getZ1();
-
-        if (pattern.equals("single") || pattern.equals("door")) {
-            BlockVector3 pos = origin.add(x1, y1, z1);
-            if (pattern.equals("door") && !canPlaceDoor(weWorld, pos))
-                return records;
-
-            BlockState state = palette.getRandomState();
-            editSession.setBlock(pos, state);
-            records.add(new PlacementRecord(pos, state));
-
-        } else if (op.getX2() != null) { // Box/Solid/etc logic
-            int x2 = op.getX2(), y2 = op.getY2(), z2 = op.getZ2();
-            int minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
-            int minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
-            int minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
-
-            for (int x = minX; x <= maxX; x++) {
-                for (int y = minY; y <= maxY; y++) {
-                    for (int z = minZ; z <= maxZ; z++) {
-                        boolean shouldPlace = switch (pattern) {
-                            case "solid", "fill" -> true;
-                            case "hollow" -> (x == minX || x == maxX || z == minZ || z == maxZ);
-                            case "box" -> (x == minX || x == maxX || y == minY || y == maxY || z == minZ || z == maxZ);
-                            case "flat" -> true;
-                            case "line" -> isPointOnLine(x, y, z, x1, y1, z1, x2, y2, z2);
-                            default -> true;
-                        };
-                        if (shouldPlace) {
-                            BlockVector3 pos = origin.add(x, y, z);
-                            BlockState state = palette.getRandomState();
-                            editSession.setBlock(pos, state);
-                            records.add(new PlacementRecord(pos, state));
-                        }
-                    }
-                }
-            }
-        }
-        return records;
-    }
-
-    private static boolean canPlaceDoor(com.sk89q.worldedit.world.World world, BlockVector3 pos) {
-        // Simple check: don't place if occupied?
-        // Actually, with auto-door, we just want to ensure we don't overwrite weird
-        // things.
-        // For now, minimal validation to avoid blocking valid placements.
-        return true;
-    }
-
-    private static boolean isPointOnLine(int x, int y, int z, int x1, int y1, int z1, int x2, int y2, int z2) {
-        if (x1 == x2 && y1 == y2)
-            return x == x1 && y == y1 && z >= Math.min(z1, z2) && z <= Math.max(z1, z2);
-        if (x1 == x2 && z1 == z2)
-            return x == x1 && z == z1 && y >= Math.min(y1, y2) && y <= Math.max(y1, y2);
-        if (y1 == y2 && z1 == z2)
-            return y == y1 && z == z1 && x >= Math.min(x1, x2) && x <= Math.max(x1, x2);
-        return true;
-    }
-
     /**
      * CRITICAL FIX for state parsing (Stairs facing North bug).
      * Uses Bukkit's native parser which handles states much better than WorldEdit's
      * legacy parser.
+     * Uncached; go through {@link BlockStateCache#get(String)} instead.
      */
-    private static BlockState parseBlock(String blockData) {
+    static BlockState parseBlock(String blockData) {
         if (blockData == null || blockData.isEmpty())
             return null;
         try {
@@ -281,62 +296,4 @@ public class BlockPlacementEngine {
         }
         return null;
     }
-
-    private static class WeightedPalette {
-        private final List<BlockState> states = new ArrayList<>();
-        private final List<Double> cumulativeWeights = new ArrayList<>();
-        private double totalWeight = 0;
-
-        public WeightedPalette(String input) {
-            if (input == null || input.isEmpty())
-                return;
-            String[] parts = input.split(",");
-            for (String part : parts) {
-                part = part.trim();
-                double weight = 1.0;
-                String blockData = part;
-                if (part.contains("%")) {
-                    try {
-                        int percentIdx = part.indexOf("%");
-                        weight = Double.parseDouble(part.substring(0, percentIdx));
-                        blockData = part.substring(percentIdx + 1);
-                    } catch (Exception e) {
-                    }
-                }
-                BlockState state = parseBlock(blockData); // Uses new robust parser
-                if (state != null) {
-                    states.add(state);
-                    totalWeight += weight;
-                    cumulativeWeights.add(totalWeight);
-                }
-            }
-        }
-
-        public boolean isEmpty() {
-            return states.isEmpty();
-        }
-
-        public BlockState getRandomState() {
-            if (isEmpty())
-                return null;
-            if (states.size() == 1)
-                return states.get(0);
-            double r = RANDOM.nextDouble() * totalWeight;
-            for (int i = 0; i < cumulativeWeights.size(); i++) {
-                if (r <= cumulativeWeights.get(i))
-                    return states.get(i);
-            }
-            return states.get(0);
-        }
-    }
-
-    private static class PlacementRecord {
-        final BlockVector3 position;
-        final BlockState state;
-
-        PlacementRecord(BlockVector3 position, BlockState state) {
-            this.position = position;
-            this.state = state;
-        }
-    }
 }
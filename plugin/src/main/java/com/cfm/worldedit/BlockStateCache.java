@@ -0,0 +1,142 @@
+package com.cfm.worldedit;
+
+import com.sk89q.worldedit.world.block.BlockState;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of parsed block states, shared by every build. WorldEdit
+ * block states are immutable, so a parsed state can be handed out freely.
+ * Strings that fail to parse are remembered too, so a bad block id repeated
+ * across thousands of LLM operations is only parsed once.
+ */
+public final class BlockStateCache {
+
+    private static final int MAX_ENTRIES = 4096;
+    private static final int MAX_NEGATIVE_ENTRIES = 1024;
+
+    private static final Map<String, BlockState> STATES = lru(MAX_ENTRIES);
+    // Kept apart so garbage input can never evict valid states
+    private static final Map<String, Boolean> FAILURES = lru(MAX_NEGATIVE_ENTRIES);
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong negativeHits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private BlockStateCache() {
+    }
+
+    /**
+     * Resolves a block data string such as {@code minecraft:oak_stairs[facing=east]}.
+     *
+     * @return the parsed state, or null if the string is not a valid block
+     */
+    public static BlockState get(String blockData) {
+        if (blockData == null || blockData.isBlank())
+            return null;
+        String key = normalize(blockData);
+
+        BlockState cached;
+        synchronized (STATES) {
+            cached = STATES.get(key);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        synchronized (FAILURES) {
+            if (FAILURES.containsKey(key)) {
+                negativeHits.incrementAndGet();
+                return null;
+            }
+        }
+
+        // Parse outside the locks; a racing duplicate parse is harmless
+        misses.incrementAndGet();
+        BlockState parsed = BlockPlacementEngine.parseBlock(key);
+        if (parsed != null) {
+            synchronized (STATES) {
+                STATES.put(key, parsed);
+            }
+        } else {
+            synchronized (FAILURES) {
+                FAILURES.put(key, Boolean.TRUE);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Canonical cache key: lower case, no whitespace, explicit namespace.
+     */
+    static String normalize(String blockData) {
+        StringBuilder sb = new StringBuilder(blockData.length() + 10);
+        for (int i = 0; i < blockData.length(); i++) {
+            char c = blockData.charAt(i);
+            if (!Character.isWhitespace(c))
+                sb.append(c);
+        }
+        String key = sb.toString().toLowerCase(Locale.ROOT);
+        int bracket = key.indexOf('[');
+        int colon = key.indexOf(':');
+        if (colon < 0 || (bracket >= 0 && colon > bracket))
+            key = "minecraft:" + key;
+        return key;
+    }
+
+    public static Stats getStats() {
+        int size;
+        int negativeSize;
+        synchronized (STATES) {
+            size = STATES.size();
+        }
+        synchronized (FAILURES) {
+            negativeSize = FAILURES.size();
+        }
+        return new Stats(hits.get(), negativeHits.get(), misses.get(), size, negativeSize);
+    }
+
+    public static void clear() {
+        synchronized (STATES) {
+            STATES.clear();
+        }
+        synchronized (FAILURES) {
+            FAILURES.clear();
+        }
+    }
+
+    private static <V> Map<String, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Stats {
+        private final long hits;
+        private final long negativeHits;
+        private final long misses;
+        private final int size;
+        private final int negativeSize;
+
+        public double getHitRate() {
+            long lookups = hits + negativeHits + misses;
+            return lookups == 0 ? 0 : (double) (hits + negativeHits) / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f%% hit rate (%d hits, %d negative hits, %d misses), %d cached, %d invalid",
+                    getHitRate() * 100, hits, negativeHits, misses, size, negativeSize);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.cfm.worldedit;
+
+import com.cfm.schema.VoxelSchemaParser;
+import com.cfm.util.Hashing;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of parsed and compiled builds, keyed by a SHA-256 hash
+ * of the schema text. An AI response is parsed once when it arrives and
+ * compiled once per {@link BuildRandom} seed; placing, previewing or diffing
+ * the same schema again reuses both. Compiled builds are only read during
+ * placement (palettes only ever grow), so one can back any number of jobs.
+ * <p>
+ * Bounded by entry count and by weight, the operations plus compiled voxels
+ * and region fills held, least recently used first.
+ */
+public final class BuildCache {
+
+    private static final int MAX_ENTRIES = 64;
+    private static final long MAX_WEIGHT = 4_000_000;
+
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    // Guarded by ENTRIES, like every entry's own weight
+    private static long weight;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong compiles = new AtomicLong();
+
+    private BuildCache() {
+    }
+
+    /**
+     * Returns the parsed schema for {@code schemaText}, parsing it only if it
+     * is not cached. Text that holds no build, such as a chat reply, is
+     * returned as an empty entry and never cached.
+     */
+    public static Entry get(String schemaText) {
+        if (schemaText == null)
+            return new Entry(null, emptySchema());
+        String hash = Hashing.sha256(schemaText);
+        synchronized (ENTRIES) {
+            Entry cached = ENTRIES.get(hash);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        // Parse outside the lock; a racing duplicate parse is harmless
+        misses.incrementAndGet();
+        VoxelSchemaParser.BuildSchema schema;
+        try {
+            schema = VoxelSchemaParser.parseFullSchema(schemaText);
+        } catch (RuntimeException e) {
+            schema = emptySchema();
+        }
+        Entry entry = new Entry(hash, schema);
+        if (!entry.isBuild())
+            return entry;
+        synchronized (ENTRIES) {
+            Entry raced = ENTRIES.putIfAbsent(hash, entry);
+            if (raced != null)
+                return raced;
+            entry.weight = entry.getOperations().size();
+            weight += entry.weight;
+            trim();
+        }
+        return entry;
+    }
+
+    public static String getStats() {
+        int size;
+        long held;
+        synchronized (ENTRIES) {
+            size = ENTRIES.size();
+            held = weight;
+        }
+        long lookups = hits.get() + misses.get();
+        return String.format("%d cached (weight %d), %.1f%% hit rate (%d hits, %d misses), %d compiles", size, held,
+                lookups == 0 ? 0 : hits.get() * 100.0 / lookups, hits.get(), misses.get(), compiles.get());
+    }
+
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+            weight = 0;
+        }
+    }
+
+    private static void trim() {
+        Iterator<Entry> eldest = ENTRIES.values().iterator();
+        while (ENTRIES.size() > 1 && (ENTRIES.size() > MAX_ENTRIES || weight > MAX_WEIGHT) && eldest.hasNext()) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    private static VoxelSchemaParser.BuildSchema emptySchema() {
+        return VoxelSchemaParser.BuildSchema.builder().operations(new ArrayList<>()).build();
+    }
+
+    /**
+     * One schema, parsed, with its compiled builds by random seed.
+     */
+    public static class Entry {
+
+        // Hex SHA-256 of the schema text, or null if there was no text
+        @Getter
+        private final String hash;
+        @Getter
+        private final VoxelSchemaParser.BuildSchema schema;
+        private final Map<Long, CompiledBuild> compiled = new HashMap<>(2);
+        private long weight;
+
+        Entry(String hash, VoxelSchemaParser.BuildSchema schema) {
+            this.hash = hash;
+            this.schema = schema;
+        }
+
+        public List<VoxelSchemaParser.BuildOperation> getOperations() {
+            return schema.getOperations();
+        }
+
+        /**
+         * Whether the schema has anything to place.
+         */
+        public boolean isBuild() {
+            return !schema.getOperations().isEmpty();
+        }
+
+        /**
+         * The build compiled with {@code random}, compiling it on first use.
+         * Callers compiling the same entry and seed at once wait for one compile.
+         */
+        public CompiledBuild compile(BuildRandom random) {
+            CompiledBuild build;
+            synchronized (this) {
+                build = compiled.get(random.getSeed());
+                if (build != null)
+                    return build;
+                build = BuildCompiler.compile(schema.getOperations(), random);
+                compiled.put(random.getSeed(), build);
+            }
+            compiles.incrementAndGet();
+            long added = build.getVoxels().size() + build.getRegions().size();
+            synchronized (ENTRIES) {
+                weight += added;
+                if (hash != null && ENTRIES.get(hash) == this) {
+                    BuildCache.weight += added;
+                    trim();
+                }
+            }
+            return build;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.cfm.worldedit;
+
+import com.cfm.schema.VoxelSchemaParser;
+import com.cfm.util.LongIntHashMap;
+import com.cfm.util.PackedPos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Turns a list of schema operations into a {@link CompiledBuild} before any
+ * world access. Overlaps are resolved here with last-writer-wins semantics, so
+ * every voxel position is written exactly once during placement. Large
+ * operations are rasterized in parallel on a fork/join pool.
+ * <p>
+ * Output coordinates are build-relative; the placement job adds the origin.
+ */
+public final class BuildCompiler {
+
+    // Rectangular fills at least this large skip per-voxel expansion entirely
+    private static final long REGION_FAST_PATH_MIN_VOLUME = 512;
+    // Operations emitting more voxels than this are forked, in column ranges
+    // spanning at most this many cells per task
+    private static final long PARALLEL_SLICE_VOLUME = 16384;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors()),
+            pool -> {
+                var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("CFM-Compile-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+
+    private BuildCompiler() {
+    }
+
+    public static CompiledBuild compile(List<VoxelSchemaParser.BuildOperation> operations, BuildRandom random) {
+        return compile(operations, random, 0);
+    }
+
+    /**
+     * Stops the compile pool's threads, abandoning any compile still running.
+     */
+    public static void shutdown() {
+        POOL.shutdownNow();
+    }
+
+    /**
+     * Compiles a run of operations that starts at {@code firstIndex} within a
+     * larger build, so each operation draws the same random blocks it would
+     * if the whole build were compiled at once.
+     */
+    public static CompiledBuild compile(List<VoxelSchemaParser.BuildOperation> operations, BuildRandom random,
+            int firstIndex) {
+        BlockPalette blockPalette = new BlockPalette();
+
+        // Sequential pass in operation order, so palette indices are deterministic
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            VoxelSchemaParser.BuildOperation op = operations.get(i);
+            // Skip explicit upper doors if we are auto-generating them from lower doors
+            // (Optional: can keep if we want to trust LLM, but user requested we handle it)
+            if (op.getBlockData().contains("half=upper") && op.getBlockData().contains("door")) {
+                continue;
+            }
+            Shape shape = classify(op, blockPalette, random.split(firstIndex + i));
+            if (shape != null)
+                shapes.add(shape);
+        }
+
+        // Rasterize, forking the large operations off to the pool
+        List<ForkJoinTask<List<VoxelBuffer>>> forked = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            if (shape.regions != null) {
+                forked.add(null);
+                continue;
+            }
+            ShapeRasterizer rasterizer = shape.rasterizer;
+            RasterTask task = new RasterTask(shape, blockPalette, rasterizer.getMinX(), rasterizer.getMinY(),
+                    rasterizer.getMaxX(), rasterizer.getMaxY());
+            if (rasterizer.count() > PARALLEL_SLICE_VOLUME) {
+                forked.add(POOL.submit(task));
+            } else {
+                forked.add(null);
+                shape.voxels = task.compute();
+            }
+        }
+        for (int i = 0; i < shapes.size(); i++) {
+            if (forked.get(i) != null)
+                shapes.get(i).voxels = forked.get(i).join();
+        }
+
+        return merge(shapes, blockPalette);
+    }
+
+    /**
+     * Walks the operations newest first and keeps the first value seen for
+     * each position, which is the one the last operation wrote. Voxels under a
+     * region fill of a later operation are dropped, since regions are written
+     * before voxels within a chunk.
+     */
+    private static CompiledBuild merge(List<Shape> shapes, BlockPalette blockPalette) {
+        long estimate = 0;
+        for (Shape shape : shapes) {
+            if (shape.voxels != null) {
+                for (VoxelBuffer buffer : shape.voxels)
+                    estimate += buffer.size();
+            }
+        }
+        LongIntHashMap winners = new LongIntHashMap((int) Math.min(Integer.MAX_VALUE - 8, estimate), -1);
+        // Chunk section -> region fills of later operations that reach into it
+        Map<Long, List<RegionFill>> laterRegions = new HashMap<>();
+
+        for (int s = shapes.size() - 1; s >= 0; s--) {
+            Shape shape = shapes.get(s);
+            if (shape.regions != null) {
+                for (RegionFill region : shape.regions)
+                    indexBySection(region, laterRegions);
+                continue;
+            }
+            for (int b = shape.voxels.size() - 1; b >= 0; b--) {
+                VoxelBuffer buffer = shape.voxels.get(b);
+                for (int v = buffer.size() - 1; v >= 0; v--) {
+                    long pos = buffer.positionAt(v);
+                    if (winners.containsKey(pos) || isCovered(pos, laterRegions))
+                        continue;
+                    winners.put(pos, buffer.stateAt(v));
+                }
+            }
+        }
+
+        VoxelBuffer voxels = new VoxelBuffer(blockPalette, winners.size());
+        winners.forEach(voxels::add);
+
+        List<RegionFill> regions = new ArrayList<>();
+        for (Shape shape : shapes) {
+            if (shape.regions != null)
+                regions.addAll(shape.regions);
+        }
+        return new CompiledBuild(blockPalette, voxels, regions);
+    }
+
+    private static void indexBySection(RegionFill region, Map<Long, List<RegionFill>> sections) {
+        for (int sx = region.getMinX() >> 4; sx <= region.getMaxX() >> 4; sx++) {
+            for (int sy = region.getMinY() >> 4; sy <= region.getMaxY() >> 4; sy++) {
+                for (int sz = region.getMinZ() >> 4; sz <= region.getMaxZ() >> 4; sz++) {
+                    sections.computeIfAbsent(PackedPos.pack(sx, sy, sz), key -> new ArrayList<>()).add(region);
+                }
+            }
+        }
+    }
+
+    private static boolean isCovered(long pos, Map<Long, List<RegionFill>> sections) {
+        if (sections.isEmpty())
+            return false;
+        int x = PackedPos.x(pos), y = PackedPos.y(pos), z = PackedPos.z(pos);
+        List<RegionFill> regions = sections.get(PackedPos.pack(x >> 4, y >> 4, z >> 4));
+        if (regions == null)
+            return false;
+        for (RegionFill region : regions) {
+            if (region.contains(x, y, z))
+                return true;
+        }
+        return false;
+    }
+
+    private static Shape classify(VoxelSchemaParser.BuildOperation op, BlockPalette blockPalette,
+            BuildRandom random) {
+        String pattern = op.getPattern() != null ? op.getPattern().toLowerCase() : "single";
+
+        WeightedPalette palette = new WeightedPalette(op.getBlockData(), blockPalette);
+        if (palette.isEmpty())
+            return null;
+
+        int x1 = op.getX1(), y1 = op.getY1(), z1 = op.getZ1();
+
+        if (pattern.equals("single") || pattern.equals("door")) {
+            return new Shape("single", palette, random, ShapeRasterizer.forPattern("single", x1, y1, z1, x1, y1, z1));
+        }
+        if (op.getX2() == null)
+            return null;
+
+        ShapeRasterizer rasterizer = ShapeRasterizer.forPattern(pattern, x1, y1, z1, op.getX2(), op.getY2(),
+                op.getZ2());
+        Shape shape = new Shape(pattern, palette, random, rasterizer);
+        if (useRegionFastPath(shape, blockPalette)) {
+            shape.regions = new ArrayList<>();
+            RegionFill.decompose(pattern, rasterizer.getMinX(), rasterizer.getMinY(), rasterizer.getMinZ(),
+                    rasterizer.getMaxX(), rasterizer.getMaxY(), rasterizer.getMaxZ(), palette, random, shape.regions);
+        }
+        return shape;
+    }
+
+    /**
+     * Large solid/box/hollow/flat operations go straight to WorldEdit region
+     * fills, unless the palette holds doors or connectable blocks, which still
+     * need per-voxel handling.
+     */
+    private static boolean useRegionFastPath(Shape shape, BlockPalette blockPalette) {
+        boolean rectangular = switch (shape.pattern) {
+            case "solid", "fill", "flat", "box", "hollow" -> true;
+            default -> false;
+        };
+        if (!rectangular)
+            return false;
+        return shape.rasterizer.getBoundingVolume() >= REGION_FAST_PATH_MIN_VOLUME
+                && !shape.palette.needsPerVoxelHandling(blockPalette);
+    }
+
+    /**
+     * One operation after parsing: either a list of region fills, or the
+     * voxel buffers its raster tasks produced, in order.
+     */
+    private static class Shape {
+        final String pattern;
+        final WeightedPalette palette;
+        final BuildRandom random;
+        final ShapeRasterizer rasterizer;
+        List<RegionFill> regions;
+        List<VoxelBuffer> voxels;
+
+        Shape(String pattern, WeightedPalette palette, BuildRandom random, ShapeRasterizer rasterizer) {
+            this.pattern = pattern;
+            this.palette = palette;
+            this.random = random;
+            this.rasterizer = rasterizer;
+        }
+    }
+
+    /**
+     * Rasterizes the x/y columns of one operation, halving the column range
+     * along its longer axis until the box is small enough. Buffers come back
+     * low half first.
+     */
+    private static class RasterTask extends RecursiveTask<List<VoxelBuffer>> {
+        private final Shape shape;
+        private final BlockPalette blockPalette;
+        private final int minX, minY, maxX, maxY;
+
+        RasterTask(Shape shape, BlockPalette blockPalette, int minX, int minY, int maxX, int maxY) {
+            this.shape = shape;
+            this.blockPalette = blockPalette;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        @Override
+        protected List<VoxelBuffer> compute() {
+            int sizeX = maxX - minX + 1, sizeY = maxY - minY + 1;
+            ShapeRasterizer rasterizer = shape.rasterizer;
+            long volume = (long) sizeX * sizeY * (rasterizer.getMaxZ() - rasterizer.getMinZ() + 1);
+            if (volume <= PARALLEL_SLICE_VOLUME || (sizeX == 1 && sizeY == 1)) {
+                List<VoxelBuffer> result = new ArrayList<>(1);
+                result.add(rasterize(volume));
+                return result;
+            }
+
+            // Only door halves stacked in one column can collide within an
+            // operation, and the lower half always lands in the earlier task
+            RasterTask low, high;
+            if (sizeX >= sizeY) {
+                int mid = minX + sizeX / 2 - 1;
+                low = new RasterTask(shape, blockPalette, minX, minY, mid, maxY);
+                high = new RasterTask(shape, blockPalette, mid + 1, minY, maxX, maxY);
+            } else {
+                int mid = minY + sizeY / 2 - 1;
+                low = new RasterTask(shape, blockPalette, minX, minY, maxX, mid);
+                high = new RasterTask(shape, blockPalette, minX, mid + 1, maxX, maxY);
+            }
+            high.fork();
+            List<VoxelBuffer> result = new ArrayList<>(low.compute());
+            result.addAll(high.join());
+            return result;
+        }
+
+        private VoxelBuffer rasterize(long volume) {
+            VoxelBuffer buffer = new VoxelBuffer(blockPalette, (int) Math.min(volume, 4096));
+            ShapeRasterizer rasterizer = shape.rasterizer;
+            rasterizer.rasterize(minX, minY, rasterizer.getMinZ(), maxX, maxY, rasterizer.getMaxZ(),
+                    (x, y, z) -> addVoxel(buffer, x, y, z));
+            return buffer;
+        }
+
+        /**
+         * Samples the palette for a voxel at build-relative coordinates and adds
+         * it, plus the upper half when it is the lower half of a door.
+         */
+        private void addVoxel(VoxelBuffer buffer, int x, int y, int z) {
+            WeightedPalette palette = shape.palette;
+            long bits = palette.isSingleState() ? 0 : shape.random.bits(PackedPos.pack(x, y, z));
+            int state = palette.sample(bits);
+            buffer.add(x, y, z, state);
+
+            // AUTO-DOOR LOGIC: If we placed a lower door, automatically place the upper half
+            if (palette.hasDoors()) {
+                int upper = blockPalette.upperDoorIndex(state);
+                if (upper >= 0) {
+                    buffer.add(x, y + 1, z, upper);
+                }
+            }
+        }
+    }
+}
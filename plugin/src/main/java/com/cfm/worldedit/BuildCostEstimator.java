@@ -0,0 +1,123 @@
+package com.cfm.worldedit;
+
+import com.cfm.CFM;
+import com.cfm.schema.VoxelSchemaParser;
+import com.cfm.util.LongHashSet;
+import com.cfm.util.PackedPos;
+import com.sk89q.worldedit.math.BlockVector3;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Cost of a build worked out from operation bounds and patterns alone, before
+ * anything is parsed, compiled or loaded. Voxel counts come from
+ * {@link ShapeRasterizer#count()}; overlapping operations are counted once per
+ * operation, which is what placement writes at most.
+ * <p>
+ * Counting stops once the build is over {@code max_block_count}, so a huge
+ * operation is refused for about the cost of one at the limit. The block count
+ * is then a lower bound, but still over the limit.
+ */
+public final class BuildCostEstimator {
+
+    // Past this many chunks the exact count no longer matters, only that it is too many
+    private static final int CHUNK_COUNT_CAP = 1 << 16;
+
+    private BuildCostEstimator() {
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Estimate {
+        private final long blocks;
+        // Distinct chunk columns touched by operation bounds, capped at CHUNK_COUNT_CAP
+        private final int chunks;
+    }
+
+    public static Estimate estimate(List<VoxelSchemaParser.BuildOperation> operations, BlockVector3 origin) {
+        return estimate(operations, origin, new LongHashSet(), 0);
+    }
+
+    /**
+     * Estimates a part of a build arriving in pieces. Chunks touched are added
+     * to {@code chunks}, which carries over between calls, so the returned
+     * chunk count covers every piece so far; the block count is this piece's.
+     *
+     * @param previousBlocks blocks in the pieces before this one, counted against the limit
+     */
+    public static Estimate estimate(List<VoxelSchemaParser.BuildOperation> operations, BlockVector3 origin,
+            LongHashSet chunks, long previousBlocks) {
+        long limit = Math.max(0, CFM.getInstance().getPlacementScheduler().getMaxBuildBlocks() - previousBlocks);
+        long blocks = 0;
+        boolean capped = chunks.size() >= CHUNK_COUNT_CAP;
+
+        for (VoxelSchemaParser.BuildOperation op : operations) {
+            if (blocks > limit)
+                break;
+            String blockData = op.getBlockData() != null ? op.getBlockData() : "";
+            boolean door = blockData.contains("door") && !blockData.contains("trapdoor");
+            // Upper doors are skipped at compile time and regenerated from the lower half
+            if (door && blockData.contains("half=upper"))
+                continue;
+
+            String pattern = op.getPattern() != null ? op.getPattern().toLowerCase() : "single";
+            boolean point = pattern.equals("single") || pattern.equals("door");
+            // The compiler ignores box patterns without a second corner as well
+            if (!point && op.getX2() == null)
+                continue;
+            ShapeRasterizer shape = point
+                    ? ShapeRasterizer.forPattern("single", op.getX1(), op.getY1(), op.getZ1(), op.getX1(),
+                            op.getY1(), op.getZ1())
+                    : ShapeRasterizer.forPattern(pattern, op.getX1(), op.getY1(), op.getZ1(), op.getX2(),
+                            op.getY2(), op.getZ2());
+
+            long remaining = limit - blocks;
+            long count = shape.count(door ? remaining / 2 : remaining);
+            blocks += door ? count * 2 : count;
+
+            if (!capped) {
+                int minChunkX = (origin.getX() + shape.getMinX()) >> 4;
+                int maxChunkX = (origin.getX() + shape.getMaxX()) >> 4;
+                int minChunkZ = (origin.getZ() + shape.getMinZ()) >> 4;
+                int maxChunkZ = (origin.getZ() + shape.getMaxZ()) >> 4;
+                long area = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+                if (area > CHUNK_COUNT_CAP) {
+                    capped = true;
+                    continue;
+                }
+                for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                    for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                        chunks.add(PackedPos.chunkKey(chunkX, chunkZ));
+                    }
+                }
+                capped = chunks.size() >= CHUNK_COUNT_CAP;
+            }
+        }
+        return new Estimate(blocks, capped ? CHUNK_COUNT_CAP : chunks.size());
+    }
+
+    /**
+     * Cost of a build that is already compiled, such as an imported schematic.
+     */
+    public static Estimate estimate(CompiledBuild build, BlockVector3 origin) {
+        LongHashSet chunks = new LongHashSet();
+        VoxelBuffer voxels = build.getVoxels();
+        for (int i = 0; i < voxels.size() && chunks.size() < CHUNK_COUNT_CAP; i++) {
+            long position = voxels.positionAt(i);
+            chunks.add(PackedPos.chunkKey((origin.getX() + PackedPos.x(position)) >> 4,
+                    (origin.getZ() + PackedPos.z(position)) >> 4));
+        }
+        for (RegionFill region : build.getRegions()) {
+            for (int chunkX = (origin.getX() + region.getMinX()) >> 4;
+                    chunkX <= (origin.getX() + region.getMaxX()) >> 4 && chunks.size() < CHUNK_COUNT_CAP; chunkX++) {
+                for (int chunkZ = (origin.getZ() + region.getMinZ()) >> 4;
+                        chunkZ <= (origin.getZ() + region.getMaxZ()) >> 4; chunkZ++) {
+                    chunks.add(PackedPos.chunkKey(chunkX, chunkZ));
+                }
+            }
+        }
+        return new Estimate(build.getBlockCount(), Math.min(chunks.size(), CHUNK_COUNT_CAP));
+    }
+}
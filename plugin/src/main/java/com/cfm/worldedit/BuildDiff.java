@@ -0,0 +1,111 @@
+package com.cfm.worldedit;
+
+import com.cfm.util.LongHashSet;
+import com.cfm.util.LongIntHashMap;
+import com.cfm.util.PackedPos;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypes;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Difference between two iterations of a build placed at the same origin.
+ * Both builds are expanded to one state per position and compared, and only
+ * added, changed and removed voxels are kept. Removed voxels get back what
+ * was there before the build, as far as the {@link Terrain} knows, and
+ * become air otherwise.
+ */
+public final class BuildDiff {
+
+    private static final int MISSING = -1;
+
+    private BuildDiff() {
+    }
+
+    /**
+     * Like {@link #between(CompiledBuild, CompiledBuild, Terrain)}, turning
+     * every removed voxel into air.
+     */
+    public static CompiledBuild between(CompiledBuild previous, CompiledBuild next) {
+        return between(previous, next, positions -> Collections.emptyMap());
+    }
+
+    /**
+     * Compiled build that turns {@code previous} into {@code next} when placed,
+     * sharing the palette of {@code next}. Both must be build-relative.
+     */
+    public static CompiledBuild between(CompiledBuild previous, CompiledBuild next, Terrain terrain) {
+        LongIntHashMap before = expand(previous);
+        LongIntHashMap after = expand(next);
+
+        BlockPalette palette = next.getPalette();
+        BlockPalette previousPalette = previous.getPalette();
+        // Previous palette indices moved into the next palette, resolved on first use
+        int[] remap = new int[previousPalette.size()];
+        Arrays.fill(remap, MISSING);
+        int air = palette.indexOf(BlockTypes.AIR.getDefaultState());
+
+        VoxelBuffer changes = new VoxelBuffer(palette, Math.max(64, after.size() / 8));
+        after.forEach((position, state) -> {
+            int old = before.get(position);
+            if (old == MISSING) {
+                changes.add(position, state);
+                return;
+            }
+            if (remap[old] == MISSING)
+                remap[old] = palette.indexOf(previousPalette.get(old));
+            if (remap[old] != state)
+                changes.add(position, state);
+        });
+        LongHashSet removed = new LongHashSet();
+        before.forEach((position, state) -> {
+            if (!after.containsKey(position) && !previousPalette.get(state).getBlockType().getMaterial().isAir())
+                removed.add(position);
+        });
+        if (!removed.isEmpty()) {
+            Map<Long, BlockState> original = terrain.lookup(removed);
+            for (long position : removed.toArray()) {
+                BlockState state = original.get(position);
+                changes.add(position, state != null ? palette.indexOf(state) : air);
+            }
+        }
+        return new CompiledBuild(palette, changes, Collections.emptyList());
+    }
+
+    /**
+     * What the world held before the build, for restoring removed voxels.
+     */
+    @FunctionalInterface
+    public interface Terrain {
+
+        /**
+         * @param positions build-relative positions
+         * @return the known original states of those positions; missing ones become air
+         */
+        Map<Long, BlockState> lookup(LongHashSet positions);
+    }
+
+    /**
+     * Final state of every position the build writes: region fills in order,
+     * then voxels, which are never under a later region.
+     */
+    private static LongIntHashMap expand(CompiledBuild build) {
+        LongIntHashMap states = new LongIntHashMap((int) Math.min(1 << 24, build.getBlockCount()), MISSING);
+        for (RegionFill region : build.getRegions()) {
+            for (int x = region.getMinX(); x <= region.getMaxX(); x++) {
+                for (int z = region.getMinZ(); z <= region.getMaxZ(); z++) {
+                    for (int y = region.getMinY(); y <= region.getMaxY(); y++) {
+                        states.put(PackedPos.pack(x, y, z), region.stateAt(x, y, z));
+                    }
+                }
+            }
+        }
+        VoxelBuffer voxels = build.getVoxels();
+        for (int i = 0; i < voxels.size(); i++) {
+            states.put(voxels.positionAt(i), voxels.stateAt(i));
+        }
+        return states;
+    }
+}
@@ -0,0 +1,64 @@
+package com.cfm.worldedit;
+
+import com.cfm.schema.VoxelSchemaParser;
+
+import java.util.List;
+
+/**
+ * Deterministic randomness for one build. Values come from the SplitMix64
+ * generator that backs {@link java.util.SplittableRandom}, but are keyed by
+ * (seed, operation, position) instead of drawn from a shared sequence: the
+ * result for a voxel does not depend on the order or thread it is compiled
+ * in, needs no locking, and is identical every time the build is placed.
+ */
+public final class BuildRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    public BuildRandom(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Seed derived from the operations themselves, so the same schema always
+     * produces the same blocks.
+     */
+    public static BuildRandom forOperations(List<VoxelSchemaParser.BuildOperation> operations) {
+        return new BuildRandom(mix64(operations.hashCode() * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Seed shared by every iteration of a conversation, so a refinement keeps
+     * the same random blocks wherever its operations are unchanged.
+     */
+    public static BuildRandom forConversation(int conversationId) {
+        return new BuildRandom(mix64((conversationId + 1L) * GOLDEN_GAMMA));
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Independent stream for one operation, like {@link java.util.SplittableRandom#split()}
+     * but reproducible from the operation index alone.
+     */
+    public BuildRandom split(int operationIndex) {
+        return new BuildRandom(mix64(seed + (operationIndex + 1) * GOLDEN_GAMMA));
+    }
+
+    /**
+     * 64 random bits for the voxel at a packed position.
+     */
+    public long bits(long packedPos) {
+        return mix64(seed ^ mix64(packedPos + GOLDEN_GAMMA));
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
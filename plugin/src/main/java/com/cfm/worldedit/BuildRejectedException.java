@@ -0,0 +1,12 @@
+package com.cfm.worldedit;
+
+/**
+ * Thrown when admission control refuses a build before any world work starts.
+ * The message is meant for the player.
+ */
+public class BuildRejectedException extends RuntimeException {
+
+    public BuildRejectedException(String message) {
+        super(message);
+    }
+}
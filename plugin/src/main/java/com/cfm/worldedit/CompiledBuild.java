@@ -0,0 +1,36 @@
+package com.cfm.worldedit;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Everything the placement stage needs for one build: individual voxels plus
+ * large rectangular fills that are written through WorldEdit region calls.
+ * Produced by {@link BuildCompiler} in build-relative coordinates, with every
+ * voxel position unique and no voxel under a later region fill.
+ */
+@Getter
+public class CompiledBuild {
+
+    private final BlockPalette palette;
+    private final VoxelBuffer voxels;
+    private final List<RegionFill> regions;
+
+    public CompiledBuild(BlockPalette palette, VoxelBuffer voxels, List<RegionFill> regions) {
+        this.palette = palette;
+        this.voxels = voxels;
+        this.regions = regions;
+    }
+
+    /**
+     * Blocks written by placement; overlapping regions count once per region.
+     */
+    public long getBlockCount() {
+        long count = voxels.size();
+        for (RegionFill region : regions) {
+            count += region.getVolume();
+        }
+        return count;
+    }
+}
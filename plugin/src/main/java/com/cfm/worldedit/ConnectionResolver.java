@@ -0,0 +1,216 @@
+package com.cfm.worldedit;
+
+import com.cfm.util.LongHashSet;
+import com.cfm.util.LongIntHashMap;
+import com.cfm.util.PackedPos;
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.world.block.BlockState;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.MultipleFacing;
+import org.bukkit.block.data.type.Wall;
+
+import java.util.List;
+
+/**
+ * Works out fence/pane/bar connections before anything is written, against
+ * the compiled voxels plus a snapshot of the blocks just outside the build.
+ * Everything but the snapshot runs off the main thread; placement then writes
+ * the final connected states directly.
+ */
+class ConnectionResolver {
+
+    private static final BlockFace[] HORIZONTAL = { BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH,
+            BlockFace.WEST };
+    private static final Material[] MATERIALS = Material.values();
+
+    private final long[] positions;
+    private final int[] states;
+    private final BlockPalette palette;
+    private final List<RegionFill> regions;
+    // Position -> index of the voxel that ends up there (last writer wins)
+    private final LongIntHashMap model;
+    // Per palette index: 0 = unknown, 1 = connectable, 2 = not
+    private final byte[] connectable;
+    private final Material[] materials;
+
+    ConnectionResolver(long[] positions, int[] states, BlockPalette palette, List<RegionFill> regions) {
+        this.positions = positions;
+        this.states = states;
+        this.palette = palette;
+        this.regions = regions;
+        this.model = new LongIntHashMap(positions.length, -1);
+        for (int i = 0; i < positions.length; i++) {
+            model.put(positions[i], i);
+        }
+        this.connectable = new byte[palette.size()];
+        this.materials = new Material[palette.size()];
+    }
+
+    boolean hasConnectables() {
+        for (int i = 0; i < positions.length; i++) {
+            if (isFinal(i) && isConnectable(states[i]))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Horizontal neighbours of connectable voxels that lie outside the build.
+     * Their current world state has to be snapshotted before resolving.
+     */
+    long[] collectBorder() {
+        LongHashSet border = new LongHashSet();
+        for (int i = 0; i < positions.length; i++) {
+            if (!isFinal(i) || !isConnectable(states[i]))
+                continue;
+            for (BlockFace face : HORIZONTAL) {
+                long neighbor = PackedPos.offset(positions[i], face.getModX(), 0, face.getModZ());
+                if (isOutside(neighbor))
+                    border.add(neighbor);
+            }
+        }
+        return border.toArray();
+    }
+
+    /**
+     * Horizontal neighbours of every voxel and region fill that lie outside the
+     * build: the only existing blocks that may need their own connections
+     * refreshed afterwards.
+     */
+    long[] collectOuterBoundary() {
+        LongHashSet boundary = new LongHashSet();
+        for (int i = 0; i < positions.length; i++) {
+            if (!isFinal(i))
+                continue;
+            for (BlockFace face : HORIZONTAL) {
+                long neighbor = PackedPos.offset(positions[i], face.getModX(), 0, face.getModZ());
+                if (isOutside(neighbor))
+                    boundary.add(neighbor);
+            }
+        }
+        // Just outside each fill's four sides; what lies against its other faces is inside it
+        for (RegionFill region : regions) {
+            for (int y = region.getMinY(); y <= region.getMaxY(); y++) {
+                for (int z = region.getMinZ(); z <= region.getMaxZ(); z++) {
+                    addIfOutside(boundary, PackedPos.pack(region.getMinX() - 1, y, z));
+                    addIfOutside(boundary, PackedPos.pack(region.getMaxX() + 1, y, z));
+                }
+                for (int x = region.getMinX(); x <= region.getMaxX(); x++) {
+                    addIfOutside(boundary, PackedPos.pack(x, y, region.getMinZ() - 1));
+                    addIfOutside(boundary, PackedPos.pack(x, y, region.getMaxZ() + 1));
+                }
+            }
+        }
+        return boundary.toArray();
+    }
+
+    private void addIfOutside(LongHashSet boundary, long pos) {
+        if (isOutside(pos))
+            boundary.add(pos);
+    }
+
+    /**
+     * Rewrites the state of every connectable voxel with its resolved faces.
+     *
+     * @param borderMaterials position -> {@link Material} ordinal for the border snapshot
+     */
+    void resolve(LongIntHashMap borderMaterials) {
+        // (palette index << 4 | face mask) -> resolved palette index
+        LongIntHashMap resolved = new LongIntHashMap(64, -1);
+
+        for (int i = 0; i < positions.length; i++) {
+            int state = states[i];
+            if (!isFinal(i) || !isConnectable(state))
+                continue;
+
+            Material source = materialOf(state);
+            int mask = 0;
+            for (int f = 0; f < HORIZONTAL.length; f++) {
+                BlockFace face = HORIZONTAL[f];
+                long neighbor = PackedPos.offset(positions[i], face.getModX(), 0, face.getModZ());
+                if (BlockPlacementEngine.shouldConnect(source, materialAt(neighbor, borderMaterials)))
+                    mask |= 1 << f;
+            }
+
+            long key = ((long) state << 4) | mask;
+            int connected = resolved.get(key);
+            if (connected < 0) {
+                connected = withFaces(state, mask);
+                resolved.put(key, connected);
+            }
+            states[i] = connected;
+        }
+    }
+
+    private boolean isFinal(int index) {
+        return model.get(positions[index]) == index;
+    }
+
+    private boolean isOutside(long pos) {
+        return !model.containsKey(pos) && regionAt(pos) == null;
+    }
+
+    private boolean isConnectable(int state) {
+        if (state >= connectable.length)
+            return false;
+        if (connectable[state] == 0) {
+            BlockData data = BukkitAdapter.adapt(palette.get(state));
+            boolean result = BlockPlacementEngine.isConnectable(materialOf(state))
+                    && (data instanceof MultipleFacing || data instanceof Wall);
+            connectable[state] = (byte) (result ? 1 : 2);
+        }
+        return connectable[state] == 1;
+    }
+
+    private Material materialOf(int state) {
+        if (state >= materials.length)
+            return BukkitAdapter.adapt(palette.get(state).getBlockType());
+        if (materials[state] == null)
+            materials[state] = BukkitAdapter.adapt(palette.get(state).getBlockType());
+        return materials[state];
+    }
+
+    private Material materialAt(long pos, LongIntHashMap borderMaterials) {
+        int index = model.get(pos);
+        if (index >= 0)
+            return materialOf(states[index]);
+        RegionFill region = regionAt(pos);
+        if (region != null)
+            return materialOf(region.stateAt(PackedPos.x(pos), PackedPos.y(pos), PackedPos.z(pos)));
+        int ordinal = borderMaterials.get(pos);
+        return ordinal >= 0 ? MATERIALS[ordinal] : Material.AIR;
+    }
+
+    // Later regions overwrite earlier ones
+    private RegionFill regionAt(long pos) {
+        int x = PackedPos.x(pos), y = PackedPos.y(pos), z = PackedPos.z(pos);
+        for (int r = regions.size() - 1; r >= 0; r--) {
+            RegionFill region = regions.get(r);
+            if (region.contains(x, y, z))
+                return region;
+        }
+        return null;
+    }
+
+    private int withFaces(int state, int mask) {
+        BlockData data = BukkitAdapter.adapt(palette.get(state)).clone();
+        if (data instanceof MultipleFacing facing) {
+            for (int f = 0; f < HORIZONTAL.length; f++) {
+                if (facing.getAllowedFaces().contains(HORIZONTAL[f]))
+                    facing.setFace(HORIZONTAL[f], (mask & (1 << f)) != 0);
+            }
+        } else if (data instanceof Wall wall) {
+            boolean[] connected = new boolean[HORIZONTAL.length];
+            for (int f = 0; f < HORIZONTAL.length; f++) {
+                connected[f] = (mask & (1 << f)) != 0;
+            }
+            BlockPlacementEngine.connectWall(wall, connected);
+        } else {
+            return state;
+        }
+        BlockState connected = BukkitAdapter.adapt(data);
+        return palette.indexOf(connected);
+    }
+}
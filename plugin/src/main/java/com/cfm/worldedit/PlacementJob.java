@@ -0,0 +1,539 @@
+package com.cfm.worldedit;
+
+import com.cfm.CFM;
+import com.cfm.model.Build;
+import com.cfm.util.Logger;
+import com.cfm.util.LongHashSet;
+import com.cfm.util.LongIntHashMap;
+import com.cfm.util.PackedPos;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.function.pattern.Pattern;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.world.block.BlockState;
+import lombok.Getter;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A compiled build being written into the world across several ticks.
+ * Driven exclusively by {@link PlacementScheduler} on the main thread.
+ */
+public class PlacementJob extends ScheduledJob {
+
+    // How often (in blocks) the deadline is re-checked; nanoTime is not free
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+
+    // Chunks requested ahead of the one currently being written
+    private static final int PRELOAD_AHEAD = 8;
+
+    public enum Stage {
+        RESOLVING, PLACING, CONNECTING, DONE, FAILED
+    }
+
+    private final com.sk89q.worldedit.world.World weWorld;
+    private final BlockPalette palette;
+    // Voxels reordered so each chunk column (sections bottom-up) is contiguous
+    private final long[] positions;
+    private final int[] states;
+    private final List<RegionFill> regions;
+    private final List<ChunkBucket> buckets;
+    private final int totalBlocks;
+    // Previous states of everything this job overwrites, for /cfm undo
+    private final UndoJournal journal;
+    // False when the journal is shared with other jobs and pushed by whoever created it
+    private final boolean ownsJournal;
+
+    // Connection resolution: border snapshot on the main thread, the rest async
+    private ConnectionResolver resolver;
+    private long[] border;
+    private List<CompletableFuture<Chunk>> borderLoads;
+    private CompletableFuture<Void> resolution;
+
+    @Getter
+    private Stage stage;
+    @Getter
+    private PlacementScheduler.Admission admission;
+    // Build row this job places, or 0; its status follows the placement
+    @Getter
+    private int buildId;
+
+    private int bucketCursor;
+    private int voxelCursor;
+    private int preloadCursor;
+    private final long[] outerBoundary;
+    private int connectionCursor;
+
+    public PlacementJob(Player player, CompiledBuild build, BlockVector3 origin) {
+        this(player, build, origin, null);
+    }
+
+    /**
+     * @param journal journal to record overwritten blocks into, shared with other
+     *                jobs of the same build; null for a journal of its own
+     */
+    PlacementJob(Player player, CompiledBuild build, BlockVector3 origin, UndoJournal journal) {
+        super(player.getUniqueId(), player.getName(), player.getWorld());
+        this.weWorld = BukkitAdapter.adapt(world);
+        VoxelBuffer voxels = build.getVoxels();
+        this.palette = build.getPalette();
+        this.regions = new ArrayList<>(build.getRegions().size());
+        for (RegionFill region : build.getRegions()) {
+            regions.add(region.translate(origin.getX(), origin.getY(), origin.getZ()));
+        }
+        this.positions = new long[voxels.size()];
+        this.states = new int[voxels.size()];
+        this.buckets = bucketByChunk(voxels, origin, regions, positions, states);
+        this.totalBlocks = (int) Math.min(Integer.MAX_VALUE, build.getBlockCount());
+        this.ownsJournal = journal == null;
+        this.journal = ownsJournal
+                ? CFM.getInstance().getUndoManager().newJournal(getOwnerId(), getOwnerName(), world)
+                : journal;
+
+        ConnectionResolver connections = new ConnectionResolver(positions, states, palette, regions);
+        this.outerBoundary = connections.collectOuterBoundary();
+        Arrays.sort(outerBoundary);
+        if (connections.hasConnectables()) {
+            this.resolver = connections;
+            this.border = connections.collectBorder();
+            this.stage = Stage.RESOLVING;
+        } else {
+            this.stage = Stage.PLACING;
+        }
+    }
+
+    @Override
+    public int getTotalBlocks() {
+        return totalBlocks;
+    }
+
+    @Override
+    public String getKind() {
+        return "build";
+    }
+
+    void setAdmission(PlacementScheduler.Admission admission) {
+        this.admission = admission;
+    }
+
+    void setBuildId(int buildId) {
+        this.buildId = buildId;
+    }
+
+    @Override
+    protected int step(long deadlineNanos, int maxBlocks) throws Exception {
+        int done = 0;
+        if (stage == Stage.RESOLVING) {
+            advanceResolution();
+        }
+        if (stage == Stage.PLACING) {
+            done += placeSlice(deadlineNanos, maxBlocks);
+            if (bucketCursor >= buckets.size()) {
+                stage = Stage.CONNECTING;
+            }
+        }
+        if (stage == Stage.CONNECTING && done < maxBlocks && System.nanoTime() < deadlineNanos) {
+            done += connectSlice(deadlineNanos, maxBlocks - done);
+            if (connectionCursor >= outerBoundary.length) {
+                stage = Stage.DONE;
+                complete();
+            }
+        }
+        return done;
+    }
+
+    @Override
+    protected void fail(Throwable error) {
+        if (isDone())
+            return;
+        stage = Stage.FAILED;
+        super.fail(error);
+    }
+
+    /**
+     * Moves the build-relative voxels to the origin and counting-sorts them into
+     * chunk columns, sections bottom-up within a column. Linear in the voxel count.
+     */
+    private static List<ChunkBucket> bucketByChunk(VoxelBuffer voxels, BlockVector3 origin, List<RegionFill> regions,
+            long[] positions, int[] states) {
+        int size = voxels.size();
+        int originX = origin.getX(), originY = origin.getY(), originZ = origin.getZ();
+        LongIntHashMap sectionCounts = new LongIntHashMap(64, 0);
+        for (int i = 0; i < size; i++) {
+            long position = PackedPos.offset(voxels.positionAt(i), originX, originY, originZ);
+            sectionCounts.increment(sectionKey(position), 1);
+        }
+        // Columns only touched by region fills still need a (voxel-less) bucket
+        for (RegionFill region : regions) {
+            for (int chunkX = region.getMinX() >> 4; chunkX <= region.getMaxX() >> 4; chunkX++) {
+                for (int chunkZ = region.getMinZ() >> 4; chunkZ <= region.getMaxZ() >> 4; chunkZ++) {
+                    sectionCounts.increment(sectionKey(chunkX, region.getMinY() >> 4, chunkZ), 0);
+                }
+            }
+        }
+
+        long[] sections = sectionCounts.keys();
+        Arrays.sort(sections);
+
+        // Turn the counts into start offsets, and group sections into columns
+        LongIntHashMap offsets = new LongIntHashMap(sections.length, -1);
+        List<ChunkBucket> buckets = new ArrayList<>();
+        ChunkBucket current = null;
+        int offset = 0;
+        for (long section : sections) {
+            int chunkX = (int) (section >> 40);
+            int chunkZ = (int) (section << 24 >> 40);
+            if (current == null || current.chunkX != chunkX || current.chunkZ != chunkZ) {
+                current = new ChunkBucket(chunkX, chunkZ, offset);
+                buckets.add(current);
+            }
+            offsets.put(section, offset);
+            offset += sectionCounts.get(section);
+            current.end = offset;
+        }
+
+        for (int i = 0; i < size; i++) {
+            long position = PackedPos.offset(voxels.positionAt(i), originX, originY, originZ);
+            long section = sectionKey(position);
+            int slot = offsets.get(section);
+            offsets.put(section, slot + 1);
+            positions[slot] = position;
+            states[slot] = voxels.stateAt(i);
+        }
+        return buckets;
+    }
+
+    /**
+     * Sortable key of a chunk section: 24 bits of chunk x, 24 bits of chunk z and
+     * 16 bits of section y, so sorting groups sections by column.
+     */
+    private static long sectionKey(long position) {
+        return sectionKey(PackedPos.x(position) >> 4, PackedPos.y(position) >> 4, PackedPos.z(position) >> 4);
+    }
+
+    private static long sectionKey(long chunkX, long sectionY, long chunkZ) {
+        return (chunkX << 40) | ((chunkZ & 0xFFFFFFL) << 16) | ((sectionY + 0x8000) & 0xFFFFL);
+    }
+
+    /**
+     * Region fills clipped to one chunk column, one slice per chunk section so a
+     * single WorldEdit call never writes more than 4096 blocks.
+     */
+    private List<RegionSlice> sliceRegions(ChunkBucket bucket) {
+        List<RegionSlice> slices = new ArrayList<>();
+        int columnMinX = bucket.chunkX << 4, columnMinZ = bucket.chunkZ << 4;
+        for (RegionFill region : regions) {
+            if (!region.intersectsColumn(bucket.chunkX, bucket.chunkZ))
+                continue;
+            int minX = Math.max(region.getMinX(), columnMinX);
+            int maxX = Math.min(region.getMaxX(), columnMinX + 15);
+            int minZ = Math.max(region.getMinZ(), columnMinZ);
+            int maxZ = Math.min(region.getMaxZ(), columnMinZ + 15);
+            for (int sectionY = region.getMinY() >> 4; sectionY <= region.getMaxY() >> 4; sectionY++) {
+                int minY = Math.max(region.getMinY(), sectionY << 4);
+                int maxY = Math.min(region.getMaxY(), (sectionY << 4) + 15);
+                slices.add(new RegionSlice(minX, minY, minZ, maxX, maxY, maxZ, region.toPattern(palette)));
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * Loads the chunks holding the border, snapshots the border materials on
+     * the main thread, then resolves connections asynchronously. Never blocks:
+     * each call moves things along and returns.
+     */
+    private void advanceResolution() {
+        if (resolution == null) {
+            if (borderLoads == null)
+                borderLoads = requestBorderChunks();
+            for (CompletableFuture<Chunk> load : borderLoads) {
+                if (!load.isDone())
+                    return;
+            }
+            LongIntHashMap snapshot = new LongIntHashMap(border.length, -1);
+            for (long pos : border) {
+                snapshot.put(pos, world.getType(PackedPos.x(pos), PackedPos.y(pos), PackedPos.z(pos)).ordinal());
+            }
+            ConnectionResolver connections = resolver;
+            resolution = CompletableFuture.runAsync(() -> connections.resolve(snapshot));
+            return;
+        }
+        if (!resolution.isDone())
+            return;
+        resolution.join();
+        resolver = null;
+        border = null;
+        borderLoads = null;
+        stage = Stage.PLACING;
+    }
+
+    private List<CompletableFuture<Chunk>> requestBorderChunks() {
+        LongHashSet chunks = new LongHashSet();
+        List<CompletableFuture<Chunk>> loads = new ArrayList<>();
+        for (long pos : border) {
+            int chunkX = PackedPos.x(pos) >> 4, chunkZ = PackedPos.z(pos) >> 4;
+            if (chunks.add(PackedPos.chunkKey(chunkX, chunkZ)) && !world.isChunkLoaded(chunkX, chunkZ))
+                loads.add(world.getChunkAtAsync(chunkX, chunkZ));
+        }
+        return loads;
+    }
+
+    /**
+     * Requests the next few chunks through Paper's async chunk API and pins them
+     * with a plugin ticket so they stay loaded until the job is over.
+     */
+    private void preloadChunks() {
+        Plugin plugin = CFM.getInstance();
+        int limit = Math.min(buckets.size(), bucketCursor + PRELOAD_AHEAD);
+        while (preloadCursor < limit) {
+            ChunkBucket bucket = buckets.get(preloadCursor++);
+            // Completes on the main thread, as soon as the chunk is loaded
+            bucket.load = world.getChunkAtAsync(bucket.chunkX, bucket.chunkZ).thenApply(chunk -> {
+                if (!isDone()) {
+                    chunk.addPluginChunkTicket(plugin);
+                    journalRegions(bucket, chunk);
+                }
+                return chunk;
+            });
+        }
+    }
+
+    private void releaseChunks() {
+        Plugin plugin = CFM.getInstance();
+        for (int i = 0; i < preloadCursor; i++) {
+            ChunkBucket bucket = buckets.get(i);
+            if (bucket.load != null && bucket.load.isDone() && !bucket.load.isCompletedExceptionally())
+                world.removePluginChunkTicket(bucket.chunkX, bucket.chunkZ, plugin);
+        }
+    }
+
+    // Phase 1: Place blocks via WorldEdit, one chunk at a time, one EditSession per slice
+    private int placeSlice(long deadlineNanos, int maxBlocks) throws Exception {
+        preloadChunks();
+
+        int done = 0;
+        try (EditSession editSession = WorldEdit.getInstance().newEditSession(weWorld)) {
+            while (bucketCursor < buckets.size() && done < maxBlocks) {
+                ChunkBucket bucket = buckets.get(bucketCursor);
+                // Never block the main thread on a chunk load, just try again next tick
+                if (!bucket.load.isDone())
+                    break;
+                bucket.load.join();
+
+                // Region fills first, then the voxels written on top of them. What the
+                // fills overwrite goes into the journal in one batch before any is written
+                if (bucket.regionJournal != null) {
+                    if (!bucket.regionJournal.isDone())
+                        break;
+                    journal.recordAll(bucket.regionJournal.join());
+                    bucket.regionJournal = null;
+                }
+                while (bucket.regionCursor < bucket.regionSlices.size() && done < maxBlocks) {
+                    RegionSlice slice = bucket.regionSlices.get(bucket.regionCursor);
+                    // Never more than the quota: a slice that does not fit is written in pieces
+                    CuboidRegion piece = slice.next(maxBlocks - done);
+                    editSession.setBlocks(piece, slice.pattern);
+                    done += (int) piece.getVolume();
+                    if (slice.isFinished())
+                        bucket.regionCursor++;
+                    if (System.nanoTime() >= deadlineNanos)
+                        break;
+                }
+                if (bucket.regionCursor < bucket.regionSlices.size())
+                    break;
+
+                if (voxelCursor < bucket.start)
+                    voxelCursor = bucket.start;
+                while (voxelCursor < bucket.end && done < maxBlocks) {
+                    long position = positions[voxelCursor];
+                    BlockState state = palette.get(states[voxelCursor]);
+                    voxelCursor++;
+                    BlockVector3 vector = BlockVector3.at(PackedPos.x(position), PackedPos.y(position),
+                            PackedPos.z(position));
+                    journal.record(position, editSession.getBlock(vector));
+                    editSession.setBlock(vector, state);
+                    done++;
+                    if (done % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() >= deadlineNanos)
+                        break;
+                }
+
+                if (voxelCursor >= bucket.end) {
+                    bucketCursor++;
+                    preloadChunks();
+                }
+                if (System.nanoTime() >= deadlineNanos)
+                    break;
+            }
+        }
+        blocksPlaced += done;
+        return done;
+    }
+
+    /**
+     * Slices the region fills of a freshly loaded bucket and, if there are
+     * any, snapshots the chunk once so the blocks they will overwrite can be
+     * read into journal records off the main thread.
+     */
+    private void journalRegions(ChunkBucket bucket, Chunk chunk) {
+        bucket.regionSlices = sliceRegions(bucket);
+        if (bucket.regionSlices.isEmpty())
+            return;
+        ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+        List<RegionSlice> slices = bucket.regionSlices;
+        BlockPalette journalPalette = journal.getPalette();
+        bucket.regionJournal = UndoJournal.supplyAsync(() -> readRegions(snapshot, slices, journalPalette));
+    }
+
+    /**
+     * The snapshot's blocks under every slice, indexed into the journal's
+     * palette. Each distinct block is adapted to WorldEdit once.
+     */
+    private static VoxelBuffer readRegions(ChunkSnapshot snapshot, List<RegionSlice> slices,
+            BlockPalette journalPalette) {
+        int total = 0;
+        for (RegionSlice slice : slices) {
+            total += slice.width * slice.length * slice.height;
+        }
+        VoxelBuffer records = new VoxelBuffer(journalPalette, total);
+        Map<BlockData, Integer> indices = new HashMap<>();
+        for (RegionSlice slice : slices) {
+            for (int y = slice.minY; y < slice.minY + slice.height; y++) {
+                for (int z = slice.minZ; z < slice.minZ + slice.length; z++) {
+                    for (int x = slice.minX; x < slice.minX + slice.width; x++) {
+                        int state = indices.computeIfAbsent(snapshot.getBlockData(x & 15, y, z & 15),
+                                data -> journalPalette.indexOf(BukkitAdapter.adapt(data)));
+                        records.add(x, y, z, state);
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
+    // Phase 2: Connections were resolved before placement; only existing blocks
+    // right outside the build may still need to connect to it
+    private int connectSlice(long deadlineNanos, int maxBlocks) {
+        int done = 0;
+        while (connectionCursor < outerBoundary.length && done < maxBlocks) {
+            long pos = outerBoundary[connectionCursor++];
+            // Never force a chunk load just to refresh a neighbour
+            if (!world.isChunkLoaded(PackedPos.x(pos) >> 4, PackedPos.z(pos) >> 4))
+                continue;
+            try {
+                Block block = world.getBlockAt(PackedPos.x(pos), PackedPos.y(pos), PackedPos.z(pos));
+                if (BlockPlacementEngine.isConnectable(block.getType())) {
+                    journal.record(pos, BukkitAdapter.adapt(block.getBlockData()));
+                    BlockPlacementEngine.fixVisualConnections(block);
+                }
+            } catch (Exception e) {
+            }
+            done++;
+            if (done % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() >= deadlineNanos)
+                break;
+        }
+        return done;
+    }
+
+    @Override
+    protected void onFinished() {
+        releaseChunks();
+        if (buildId > 0) {
+            // Only a fully placed iteration may be diffed against by /cfm refine
+            CFM.getInstance().getBuildDAO().updateBuildStatus(buildId,
+                    stage == Stage.DONE ? Build.BuildStatus.COMPLETED : Build.BuildStatus.FAILED);
+            if (ownsJournal)
+                journal.setBuildId(buildId);
+        }
+        // Partially placed builds can be rolled back too
+        if (ownsJournal)
+            CFM.getInstance().getUndoManager().push(journal);
+        if (stage == Stage.DONE && ownsJournal) {
+            Logger.info(String.format("Build placed for player %s: %d blocks in %.2fs over %d ticks (%.0f blocks/s)",
+                    getOwnerName(), blocksPlaced, getElapsedSeconds(), getTicks(), getBlocksPerSecond()));
+        }
+    }
+
+    private static class ChunkBucket {
+        final int chunkX;
+        final int chunkZ;
+        // Voxel range [start, end) in the sorted arrays
+        final int start;
+        int end;
+        CompletableFuture<Chunk> load;
+        List<RegionSlice> regionSlices;
+        // Blocks the region slices overwrite, read from a snapshot off the main thread
+        CompletableFuture<VoxelBuffer> regionJournal;
+        int regionCursor;
+
+        ChunkBucket(int chunkX, int chunkZ, int start) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.start = start;
+        }
+    }
+
+    /**
+     * A region fill clipped to one chunk section, written whole or, when the
+     * quota left is smaller, a piece at a time in x, z, y order.
+     */
+    private class RegionSlice {
+        final int minX, minY, minZ;
+        final int width, length, height;
+        final Pattern pattern;
+        // Blocks of the slice already handed out, in x, z, y order
+        int cursor;
+
+        RegionSlice(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Pattern pattern) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.width = maxX - minX + 1;
+            this.length = maxZ - minZ + 1;
+            this.height = maxY - minY + 1;
+            this.pattern = pattern;
+        }
+
+        boolean isFinished() {
+            return cursor >= width * length * height;
+        }
+
+        /**
+         * The largest cuboid of at most {@code maxBlocks} (at least one) blocks
+         * starting at the cursor: the rest of a row, whole rows of a layer, or
+         * whole layers.
+         */
+        CuboidRegion next(int maxBlocks) {
+            int layer = width * length;
+            int x = cursor % width, z = cursor / width % length, y = cursor / layer;
+            int budget = Math.max(1, maxBlocks);
+            int x2 = x, z2 = z, y2 = y;
+            if (x != 0 || budget < width) {
+                x2 = Math.min(width, x + budget) - 1;
+            } else if (z != 0 || budget < layer) {
+                x2 = width - 1;
+                z2 = Math.min(length, z + budget / width) - 1;
+            } else {
+                x2 = width - 1;
+                z2 = length - 1;
+                y2 = Math.min(height, y + budget / layer) - 1;
+            }
+            cursor += (x2 - x + 1) * (z2 - z + 1) * (y2 - y + 1);
+            return new CuboidRegion(weWorld, BlockVector3.at(minX + x, minY + y, minZ + z),
+                    BlockVector3.at(minX + x2, minY + y2, minZ + z2));
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.cfm.worldedit;
+
+import com.cfm.CFM;
+import com.cfm.util.Logger;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs submitted placement and rollback jobs on the main thread, a slice per tick.
+ * Each tick gets a millisecond budget derived from the current MSPT so that
+ * large builds never push the server past its 50ms tick.
+ * <p>
+ * Jobs are held in one lane per (world, player); a player's own jobs run in
+ * submission order. The per-tick block ceiling and time budget are split
+ * across lanes by weighted round-robin, so one huge build cannot starve
+ * everyone else. Players with {@code cfm.priority} get a heavier weight.
+ * <p>
+ * Builds also go through admission control: over {@code max_block_count} or
+ * {@code max_chunk_count} they are rejected up front, and while the server or
+ * the player already has too many blocks pending they are held back until
+ * enough of the queue has drained.
+ */
+public class PlacementScheduler {
+
+    private static final double TICK_MS = 50.0;
+    // Headroom left for the rest of the tick (entities, chunk sends, other plugins)
+    private static final double RESERVED_MS = 5.0;
+    private static final double EMA_ALPHA = 0.2;
+    private static final String PRIORITY_PERMISSION = "cfm.priority";
+
+    private final Queue<ScheduledJob> pending = new ConcurrentLinkedQueue<>();
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    // Builds admitted with QUEUE, waiting for pending blocks to drop below the budgets
+    private final Deque<ScheduledJob> held = new ArrayDeque<>();
+    private int laneRotation;
+    private BukkitTask task;
+    // Rebuilt every tick so other threads can read the queue without locking
+    private volatile List<QueueEntry> snapshot = Collections.emptyList();
+
+    private double maxBudgetMs;
+    private double minBudgetMs;
+    private int maxBlocksPerTick;
+    private int priorityWeight;
+    @Getter
+    private long maxBuildBlocks;
+    private int maxBuildChunks;
+    private long maxPendingBlocks;
+    private long maxPlayerPendingBlocks;
+
+    // Smoothed time we spent per tick, subtracted from MSPT to get the server's own load
+    private double ownMsAverage;
+    @Getter
+    private double currentBudgetMs;
+
+    private long windowStartNanos = System.nanoTime();
+    private long windowBlocks;
+    @Getter
+    private double blocksPerSecond;
+
+    public PlacementScheduler() {
+        loadSettings();
+    }
+
+    public void loadSettings() {
+        this.maxBudgetMs = CFM.getInstance().getConfig().getDouble("build.tick_budget_ms", 15.0);
+        this.minBudgetMs = CFM.getInstance().getConfig().getDouble("build.min_tick_budget_ms", 1.0);
+        this.maxBlocksPerTick = Math.max(1, CFM.getInstance().getConfig().getInt("build.placement_speed", 1000));
+        this.priorityWeight = Math.max(1, CFM.getInstance().getConfig().getInt("build.priority_weight", 3));
+        this.maxBuildBlocks = CFM.getInstance().getConfig().getLong("build.max_block_count", 50000);
+        this.maxBuildChunks = CFM.getInstance().getConfig().getInt("build.max_chunk_count", 256);
+        this.maxPendingBlocks = CFM.getInstance().getConfig().getLong("build.max_pending_blocks", 500000);
+        this.maxPlayerPendingBlocks = CFM.getInstance().getConfig().getLong("build.max_player_pending_blocks",
+                100000);
+        this.currentBudgetMs = maxBudgetMs;
+    }
+
+    public void start() {
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(CFM.getInstance(), this::tick, 1L, 1L);
+        }
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        List<ScheduledJob> remaining = new ArrayList<>();
+        ScheduledJob job;
+        while ((job = pending.poll()) != null) {
+            remaining.add(job);
+        }
+        remaining.addAll(held);
+        for (Lane lane : lanes.values()) {
+            remaining.addAll(lane.jobs);
+        }
+        for (ScheduledJob leftover : remaining) {
+            leftover.cancel("Plugin disabled");
+        }
+        lanes.clear();
+        held.clear();
+        snapshot = Collections.emptyList();
+    }
+
+    /**
+     * Decides what to do with a build of the given cost. Safe to call from any
+     * thread; pending totals are as of the last tick.
+     */
+    public Admission checkAdmission(UUID ownerId, BuildCostEstimator.Estimate estimate) {
+        if (estimate.getBlocks() > maxBuildBlocks) {
+            return new Admission(Admission.Decision.REJECT, String.format(
+                    "%d blocks is over the limit of %d per build", estimate.getBlocks(), maxBuildBlocks));
+        }
+        if (estimate.getChunks() > maxBuildChunks) {
+            return new Admission(Admission.Decision.REJECT, String.format(
+                    "build spans %d chunks, the limit is %d", estimate.getChunks(), maxBuildChunks));
+        }
+        long serverPending = 0, playerPending = 0;
+        for (QueueEntry entry : snapshot) {
+            long remaining = entry.getTotalBlocks() - entry.getBlocksPlaced();
+            serverPending += remaining;
+            if (entry.getOwnerId().equals(ownerId))
+                playerPending += remaining;
+        }
+        if (playerPending > 0 && playerPending + estimate.getBlocks() > maxPlayerPendingBlocks) {
+            return new Admission(Admission.Decision.QUEUE,
+                    String.format("you already have %d blocks pending", playerPending));
+        }
+        if (serverPending > 0 && serverPending + estimate.getBlocks() > maxPendingBlocks) {
+            return new Admission(Admission.Decision.QUEUE,
+                    String.format("%d blocks are pending server-wide", serverPending));
+        }
+        return new Admission(Admission.Decision.ACCEPT, null);
+    }
+
+    /**
+     * Queues a job for placement. Safe to call from any thread.
+     */
+    public <T extends ScheduledJob> T submit(T job) {
+        pending.add(job);
+        return job;
+    }
+
+    public int getQueuedJobCount() {
+        return pending.size() + snapshot.size();
+    }
+
+    /**
+     * Jobs currently in the queue, lane by lane. Safe to call from any thread;
+     * reflects the state at the end of the last tick.
+     */
+    public List<QueueEntry> getQueue() {
+        return snapshot;
+    }
+
+    private void tick() {
+        long tickStart = System.nanoTime();
+
+        admitHeld();
+        ScheduledJob incoming;
+        while ((incoming = pending.poll()) != null) {
+            if (held.isEmpty() && fits(incoming)) {
+                enqueue(incoming);
+            } else {
+                held.addLast(incoming);
+            }
+        }
+        if (lanes.isEmpty()) {
+            if (!snapshot.isEmpty())
+                snapshot = buildSnapshot();
+            ownMsAverage *= (1 - EMA_ALPHA);
+            updateThroughput(tickStart, 0);
+            return;
+        }
+
+        currentBudgetMs = computeBudgetMs();
+        long deadline = tickStart + (long) (currentBudgetMs * 1_000_000L);
+        int placedThisTick = share(new ArrayList<>(lanes.values()), deadline);
+
+        lanes.values().removeIf(lane -> lane.jobs.isEmpty());
+        snapshot = buildSnapshot();
+
+        double spentMs = (System.nanoTime() - tickStart) / 1_000_000.0;
+        ownMsAverage = ownMsAverage * (1 - EMA_ALPHA) + spentMs * EMA_ALPHA;
+        updateThroughput(System.nanoTime(), placedThisTick);
+    }
+
+    private void enqueue(ScheduledJob job) {
+        String key = job.getWorld().getUID() + ":" + job.getOwnerId();
+        Lane lane = lanes.computeIfAbsent(key, k -> new Lane(job.getOwnerId(), job.getOwnerName(),
+                job.getWorld().getName()));
+        lane.weight = weightOf(job.getOwnerId());
+        lane.jobs.addLast(job);
+    }
+
+    // Held builds are released in order; a build that still does not fit blocks the ones after it
+    private void admitHeld() {
+        while (!held.isEmpty()) {
+            ScheduledJob job = held.peekFirst();
+            if (job.isDone()) {
+                held.pollFirst();
+                continue;
+            }
+            if (!fits(job))
+                break;
+            enqueue(held.pollFirst());
+        }
+    }
+
+    /**
+     * Whether a job can start without pushing pending blocks over the server
+     * or player budget. Only builds are held back, never rollbacks, and a job
+     * always fits when nothing else is pending.
+     */
+    private boolean fits(ScheduledJob job) {
+        if (!(job instanceof PlacementJob))
+            return true;
+        long serverPending = 0, playerPending = 0;
+        for (Lane lane : lanes.values()) {
+            long remaining = lane.getRemainingBlocks();
+            serverPending += remaining;
+            if (lane.ownerId.equals(job.getOwnerId()))
+                playerPending += remaining;
+        }
+        long blocks = job.getTotalBlocks();
+        return (playerPending == 0 || playerPending + blocks <= maxPlayerPendingBlocks)
+                && (serverPending == 0 || serverPending + blocks <= maxPendingBlocks);
+    }
+
+    private int weightOf(UUID ownerId) {
+        Player owner = Bukkit.getPlayer(ownerId);
+        return owner != null && owner.hasPermission(PRIORITY_PERMISSION) ? priorityWeight : 1;
+    }
+
+    /**
+     * Two passes over the lanes, starting one lane further along each tick.
+     * First every lane gets its weighted share of the block ceiling and of the
+     * time left; then whatever lanes could not use (waiting on chunk loads,
+     * finished early) goes to the others in the same order.
+     */
+    private int share(List<Lane> order, long deadline) {
+        int count = order.size();
+        int start = Math.floorMod(laneRotation++, count);
+        int totalWeight = 0;
+        for (Lane lane : order) {
+            totalWeight += lane.weight;
+        }
+
+        int remainingBlocks = maxBlocksPerTick;
+        int remainingWeight = totalWeight;
+        for (int i = 0; i < count && remainingBlocks > 0; i++) {
+            Lane lane = order.get((start + i) % count);
+            long now = System.nanoTime();
+            if (now >= deadline)
+                break;
+            int quota = Math.max(1, (int) ((long) maxBlocksPerTick * lane.weight / totalWeight));
+            long laneDeadline = now + (deadline - now) * lane.weight / remainingWeight;
+            remainingWeight -= lane.weight;
+            remainingBlocks -= lane.run(laneDeadline, Math.min(quota, remainingBlocks));
+        }
+
+        for (int i = 0; i < count && remainingBlocks > 0 && System.nanoTime() < deadline; i++) {
+            Lane lane = order.get((start + i) % count);
+            remainingBlocks -= lane.run(deadline, remainingBlocks);
+        }
+        return maxBlocksPerTick - remainingBlocks;
+    }
+
+    private List<QueueEntry> buildSnapshot() {
+        List<QueueEntry> entries = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            String state = "running";
+            for (ScheduledJob job : lane.jobs) {
+                entries.add(new QueueEntry(job.getId(), job.getKind(), job.getOwnerId(), lane.ownerName, lane.world,
+                        lane.weight, state, job.getBlocksPlaced(), job.getTotalBlocks(), job.getBlocksPerSecond()));
+                state = "waiting";
+            }
+        }
+        for (ScheduledJob job : held) {
+            entries.add(new QueueEntry(job.getId(), job.getKind(), job.getOwnerId(), job.getOwnerName(),
+                    job.getWorld().getName(), weightOf(job.getOwnerId()), "held", 0, job.getTotalBlocks(), 0));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Budget = what is left of the 50ms tick once the server's own work (MSPT
+     * minus our share of it) and a safety margin are accounted for.
+     */
+    private double computeBudgetMs() {
+        double mspt = Bukkit.getServer().getAverageTickTime();
+        double serverMs = Math.max(0.0, mspt - ownMsAverage);
+        double headroom = TICK_MS - serverMs - RESERVED_MS;
+        return Math.max(minBudgetMs, Math.min(maxBudgetMs, headroom));
+    }
+
+    private void updateThroughput(long now, int placed) {
+        windowBlocks += placed;
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= 1_000_000_000L) {
+            blocksPerSecond = windowBlocks * 1_000_000_000.0 / elapsed;
+            if (windowBlocks > 0) {
+                Logger.debug(String.format("Placement: %.0f blocks/s, budget %.1fms, %d lane(s) active",
+                        blocksPerSecond, currentBudgetMs, lanes.size()));
+            }
+            windowBlocks = 0;
+            windowStartNanos = now;
+        }
+    }
+
+    /**
+     * One player's jobs in one world, run strictly in order.
+     */
+    private static class Lane {
+        final UUID ownerId;
+        final String ownerName;
+        final String world;
+        final Deque<ScheduledJob> jobs = new ArrayDeque<>();
+        int weight = 1;
+
+        Lane(UUID ownerId, String ownerName, String world) {
+            this.ownerId = ownerId;
+            this.ownerName = ownerName;
+            this.world = world;
+        }
+
+        long getRemainingBlocks() {
+            long remaining = 0;
+            for (ScheduledJob job : jobs) {
+                remaining += Math.max(0, job.getTotalBlocks() - job.getBlocksPlaced());
+            }
+            return remaining;
+        }
+
+        int run(long deadline, int maxBlocks) {
+            int done = 0;
+            while (!jobs.isEmpty() && done < maxBlocks && System.nanoTime() < deadline) {
+                ScheduledJob job = jobs.peekFirst();
+                if (!job.isDone())
+                    done += job.run(deadline, maxBlocks - done);
+                if (!job.isDone())
+                    break;
+                jobs.pollFirst();
+            }
+            return done;
+        }
+    }
+
+    /**
+     * One queued job as shown by {@code /cfm queue} and {@code GET /api/queue}.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class QueueEntry {
+        private final int jobId;
+        private final String kind;
+        private final UUID ownerId;
+        private final String owner;
+        private final String world;
+        private final int weight;
+        // running, waiting (behind the owner's earlier jobs) or held (admission control)
+        private final String state;
+        private final int blocksPlaced;
+        private final int totalBlocks;
+        private final double blocksPerSecond;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Admission {
+        public enum Decision {
+            ACCEPT, QUEUE, REJECT
+        }
+
+        private final Decision decision;
+        // Why the build was queued or rejected, for the player
+        private final String reason;
+    }
+}
@@ -0,0 +1,214 @@
+package com.cfm.worldedit;
+
+import com.cfm.CFM;
+import com.cfm.schema.VoxelSchemaParser;
+import com.cfm.util.Logger;
+import com.cfm.util.PackedPos;
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.math.BlockVector3;
+import io.papermc.paper.math.Position;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client-side previews of compiled builds. Voxels are sent only to the
+ * requesting player as fake block changes, one multi-block-change packet per
+ * chunk section, so nothing is written, lit or physics-updated until the
+ * player confirms. Each player has at most one preview at a time.
+ */
+public class PreviewManager implements Listener {
+
+    private final Map<UUID, Preview> previews = new ConcurrentHashMap<>();
+
+    /**
+     * Compiles the build and shows it to the player in place of any previous
+     * preview. Safe to call from any thread; packets are sent on the main thread.
+     *
+     * @param buildId build row to mark completed if the preview is confirmed and placed, or 0
+     * @throws BuildRejectedException if the build could never be placed
+     */
+    public Preview show(Player player, BuildCache.Entry schema, BlockVector3 origin, BuildRandom random,
+            int buildId) {
+        BlockPlacementEngine.admit(player, schema.getOperations(), origin);
+        CompiledBuild build = schema.compile(random);
+        Preview preview = new Preview(player.getWorld(), schema.getOperations(), origin, build, buildId);
+
+        Bukkit.getScheduler().runTask(CFM.getInstance(), () -> {
+            if (!player.isOnline())
+                return;
+            Preview previous = previews.put(player.getUniqueId(), preview);
+            if (previous != null)
+                revert(player, previous);
+            send(player, preview);
+            Logger.debug("Sent preview of " + preview.getBlockCount() + " blocks in " + preview.sections.size()
+                    + " sections to " + player.getName());
+        });
+        return preview;
+    }
+
+    /**
+     * Places the player's preview for real. The ghost blocks are left as they
+     * are, placement overwrites them.
+     *
+     * @return the queued placement, or null if the player has no preview
+     * @throws BuildRejectedException if the build is no longer admitted
+     */
+    public PlacementJob confirm(Player player) {
+        Preview preview = previews.get(player.getUniqueId());
+        if (preview == null)
+            return null;
+        if (!preview.world.equals(player.getWorld()))
+            throw new BuildRejectedException("the preview is in " + preview.world.getName());
+        PlacementJob job = BlockPlacementEngine.placeBuild(player, preview.operations, preview.origin,
+                preview.build, preview.buildId);
+        previews.remove(player.getUniqueId(), preview);
+        return job;
+    }
+
+    /**
+     * Drops the player's preview and resends the real blocks underneath it.
+     * Must be called on the main thread.
+     *
+     * @return whether there was a preview to cancel
+     */
+    public boolean cancel(Player player) {
+        Preview preview = previews.remove(player.getUniqueId());
+        if (preview == null)
+            return false;
+        revert(player, preview);
+        return true;
+    }
+
+    public boolean hasPreview(UUID playerId) {
+        return previews.containsKey(playerId);
+    }
+
+    /**
+     * @return the player's current preview, or null if there is none
+     */
+    public Preview getPreview(UUID playerId) {
+        return previews.get(playerId);
+    }
+
+    public void clear() {
+        previews.clear();
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent event) {
+        previews.remove(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        // The client drops its fake blocks along with the old world's chunks
+        previews.remove(event.getPlayer().getUniqueId());
+    }
+
+    private static void send(Player player, Preview preview) {
+        if (!player.getWorld().equals(preview.world))
+            return;
+        for (VoxelBuffer section : preview.sections.values()) {
+            Map<Position, BlockData> changes = new HashMap<>(section.size() * 2);
+            for (int i = 0; i < section.size(); i++) {
+                long position = section.positionAt(i);
+                changes.put(Position.block(PackedPos.x(position), PackedPos.y(position), PackedPos.z(position)),
+                        preview.blockData[section.stateAt(i)]);
+            }
+            player.sendMultiBlockChange(changes);
+        }
+    }
+
+    private static void revert(Player player, Preview preview) {
+        if (!player.getWorld().equals(preview.world))
+            return;
+        World world = preview.world;
+        for (VoxelBuffer section : preview.sections.values()) {
+            long first = section.positionAt(0);
+            // Unloaded chunks are sent whole on load, which clears the fake blocks anyway
+            if (!world.isChunkLoaded(PackedPos.x(first) >> 4, PackedPos.z(first) >> 4))
+                continue;
+            Map<Position, BlockData> changes = new HashMap<>(section.size() * 2);
+            for (int i = 0; i < section.size(); i++) {
+                long position = section.positionAt(i);
+                int x = PackedPos.x(position), y = PackedPos.y(position), z = PackedPos.z(position);
+                changes.put(Position.block(x, y, z), world.getBlockData(x, y, z));
+            }
+            player.sendMultiBlockChange(changes);
+        }
+    }
+
+    /**
+     * A compiled build as shown to one player, with its voxels and region
+     * fills expanded into world positions grouped by chunk section.
+     */
+    public static class Preview {
+
+        @Getter
+        private final World world;
+        private final List<VoxelSchemaParser.BuildOperation> operations;
+        @Getter
+        private final BlockVector3 origin;
+        private final CompiledBuild build;
+        @Getter
+        private final int buildId;
+        private final BlockData[] blockData;
+        // Keyed by PackedPos of the section coordinates
+        private final Map<Long, VoxelBuffer> sections = new LinkedHashMap<>();
+        @Getter
+        private int blockCount;
+
+        Preview(World world, List<VoxelSchemaParser.BuildOperation> operations, BlockVector3 origin,
+                CompiledBuild build, int buildId) {
+            this.world = world;
+            this.operations = operations;
+            this.origin = origin;
+            this.build = build;
+            this.buildId = buildId;
+
+            BlockPalette palette = build.getPalette();
+            this.blockData = new BlockData[palette.size()];
+            for (int i = 0; i < blockData.length; i++) {
+                blockData[i] = BukkitAdapter.adapt(palette.get(i));
+            }
+
+            int ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+            // Regions first, in order, then voxels: a voxel is never under a later region
+            for (RegionFill region : build.getRegions()) {
+                for (int x = region.getMinX(); x <= region.getMaxX(); x++) {
+                    for (int z = region.getMinZ(); z <= region.getMaxZ(); z++) {
+                        for (int y = region.getMinY(); y <= region.getMaxY(); y++) {
+                            add(x + ox, y + oy, z + oz, region.stateAt(x, y, z));
+                        }
+                    }
+                }
+            }
+            VoxelBuffer voxels = build.getVoxels();
+            for (int i = 0; i < voxels.size(); i++) {
+                long position = voxels.positionAt(i);
+                add(PackedPos.x(position) + ox, PackedPos.y(position) + oy, PackedPos.z(position) + oz,
+                        voxels.stateAt(i));
+            }
+        }
+
+        private void add(int x, int y, int z, int state) {
+            long key = PackedPos.pack(x >> 4, y >> 4, z >> 4);
+            sections.computeIfAbsent(key, k -> new VoxelBuffer(build.getPalette())).add(x, y, z, state);
+            blockCount++;
+        }
+    }
+}
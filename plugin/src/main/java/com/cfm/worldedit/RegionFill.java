@@ -0,0 +1,147 @@
+package com.cfm.worldedit;
+
+import com.cfm.util.PackedPos;
+import com.sk89q.worldedit.function.pattern.Pattern;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A solid cuboid written with a single WorldEdit {@code setBlocks} call instead
+ * of one {@code setBlock} per voxel. Bounds are inclusive; compiled builds hold
+ * them build-relative and {@link #translate} moves them into the world.
+ */
+public class RegionFill {
+
+    @Getter
+    private final int minX, minY, minZ;
+    @Getter
+    private final int maxX, maxY, maxZ;
+    private final WeightedPalette palette;
+    private final BuildRandom random;
+    // Subtracted from positions before sampling, so sampling stays keyed on
+    // build-relative coordinates wherever the fill is moved to
+    private final int originX, originY, originZ;
+
+    RegionFill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, WeightedPalette palette,
+            BuildRandom random) {
+        this(minX, minY, minZ, maxX, maxY, maxZ, palette, random, 0, 0, 0);
+    }
+
+    private RegionFill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, WeightedPalette palette,
+            BuildRandom random, int originX, int originY, int originZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.palette = palette;
+        this.random = random;
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+    }
+
+    public RegionFill translate(int dx, int dy, int dz) {
+        return new RegionFill(minX + dx, minY + dy, minZ + dz, maxX + dx, maxY + dy, maxZ + dz, palette, random,
+                originX + dx, originY + dy, originZ + dz);
+    }
+
+    public long getVolume() {
+        return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+    }
+
+    public boolean intersectsColumn(int chunkX, int chunkZ) {
+        return (maxX >> 4) >= chunkX && (minX >> 4) <= chunkX && (maxZ >> 4) >= chunkZ && (minZ >> 4) <= chunkZ;
+    }
+
+    /**
+     * Palette index this fill writes at the given position.
+     */
+    public int stateAt(int x, int y, int z) {
+        long bits = palette.isSingleState() ? 0 : random.bits(PackedPos.pack(x - originX, y - originY, z - originZ));
+        return palette.sample(bits);
+    }
+
+    public Pattern toPattern(BlockPalette blockPalette) {
+        return new PalettePattern(blockPalette);
+    }
+
+    /**
+     * Splits a rectangular operation into disjoint solid cuboids. Shells are
+     * decomposed into their faces rather than handed to makeWalls/makeFaces so
+     * each face can still be clipped to chunk sections by the scheduler.
+     */
+    static void decompose(String pattern, int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+            WeightedPalette palette, BuildRandom random, List<RegionFill> out) {
+        boolean thinX = maxX - minX < 2;
+        boolean thinY = maxY - minY < 2;
+        boolean thinZ = maxZ - minZ < 2;
+
+        switch (pattern) {
+            case "box" -> {
+                if (thinX || thinY || thinZ) {
+                    out.add(new RegionFill(minX, minY, minZ, maxX, maxY, maxZ, palette, random));
+                    return;
+                }
+                // Floor and ceiling, then walls between them
+                out.add(new RegionFill(minX, minY, minZ, maxX, minY, maxZ, palette, random));
+                out.add(new RegionFill(minX, maxY, minZ, maxX, maxY, maxZ, palette, random));
+                addWalls(minX, minY + 1, minZ, maxX, maxY - 1, maxZ, palette, random, out);
+            }
+            case "hollow" -> {
+                if (thinX || thinZ) {
+                    out.add(new RegionFill(minX, minY, minZ, maxX, maxY, maxZ, palette, random));
+                    return;
+                }
+                addWalls(minX, minY, minZ, maxX, maxY, maxZ, palette, random, out);
+            }
+            default -> out.add(new RegionFill(minX, minY, minZ, maxX, maxY, maxZ, palette, random));
+        }
+    }
+
+    private static void addWalls(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+            WeightedPalette palette, BuildRandom random, List<RegionFill> out) {
+        out.add(new RegionFill(minX, minY, minZ, minX, maxY, maxZ, palette, random));
+        out.add(new RegionFill(maxX, minY, minZ, maxX, maxY, maxZ, palette, random));
+        out.add(new RegionFill(minX + 1, minY, minZ, maxX - 1, maxY, minZ, palette, random));
+        out.add(new RegionFill(minX + 1, minY, maxZ, maxX - 1, maxY, maxZ, palette, random));
+    }
+
+    /**
+     * WorldEdit pattern sampling the weighted palette with the build's random,
+     * exactly like per-voxel placement would.
+     */
+    private class PalettePattern implements Pattern {
+        private final BlockPalette blockPalette;
+        private BaseBlock[] blocks = new BaseBlock[0];
+
+        PalettePattern(BlockPalette blockPalette) {
+            this.blockPalette = blockPalette;
+        }
+
+        @Override
+        public BaseBlock applyBlock(BlockVector3 position) {
+            int index = stateAt(position.getX(), position.getY(), position.getZ());
+            BaseBlock[] cache = blocks;
+            if (index >= cache.length) {
+                cache = Arrays.copyOf(cache, blockPalette.size());
+                blocks = cache;
+            }
+            BaseBlock block = cache[index];
+            if (block == null) {
+                block = blockPalette.get(index).toBaseBlock();
+                cache[index] = block;
+            }
+            return block;
+        }
+    }
+}
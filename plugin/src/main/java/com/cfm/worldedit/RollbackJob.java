@@ -0,0 +1,126 @@
+package com.cfm.worldedit;
+
+import com.cfm.CFM;
+import com.cfm.model.Build;
+import com.cfm.util.Logger;
+import com.cfm.util.LongHashSet;
+import com.cfm.util.PackedPos;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.math.BlockVector3;
+import org.bukkit.Chunk;
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Restores the blocks recorded in an {@link UndoJournal}, newest entry first,
+ * so positions written more than once end up with the state they had before
+ * the build. Runs under the same tick budget as placement.
+ */
+public class RollbackJob extends ScheduledJob {
+
+    // How often (in blocks) the deadline is re-checked; nanoTime is not free
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+
+    private final UndoJournal journal;
+    private final UndoJournal.Reader reader;
+    private final com.sk89q.worldedit.world.World weWorld;
+    private final int totalBlocks;
+
+    private VoxelBuffer batch;
+    private int batchCursor = -1;
+    private CompletableFuture<Chunk> chunkLoad;
+    // Chunks this job loaded, pinned with a plugin ticket until it is over
+    private final LongHashSet ticketed = new LongHashSet();
+
+    public RollbackJob(UndoJournal journal) {
+        super(journal.getOwnerId(), journal.getOwnerName(), journal.getWorld());
+        this.journal = journal;
+        this.reader = journal.reverseReader();
+        this.weWorld = BukkitAdapter.adapt(world);
+        this.totalBlocks = (int) Math.min(Integer.MAX_VALUE, journal.size());
+    }
+
+    @Override
+    public int getTotalBlocks() {
+        return totalBlocks;
+    }
+
+    @Override
+    public String getKind() {
+        return "undo";
+    }
+
+    @Override
+    protected int step(long deadlineNanos, int maxBlocks) throws Exception {
+        BlockPalette palette = journal.getPalette();
+        int done = 0;
+        try (EditSession editSession = WorldEdit.getInstance().newEditSession(weWorld)) {
+            while (done < maxBlocks) {
+                if (batchCursor < 0) {
+                    batch = reader.poll();
+                    if (batch == null) {
+                        if (reader.isExhausted())
+                            complete();
+                        break;
+                    }
+                    batchCursor = batch.size() - 1;
+                    continue;
+                }
+
+                long position = batch.positionAt(batchCursor);
+                int x = PackedPos.x(position), y = PackedPos.y(position), z = PackedPos.z(position);
+                // Never block the main thread on a chunk load, just try again next tick
+                if (!world.isChunkLoaded(x >> 4, z >> 4)) {
+                    if (chunkLoad == null)
+                        chunkLoad = loadChunk(x >> 4, z >> 4);
+                    if (!chunkLoad.isDone())
+                        break;
+                }
+                chunkLoad = null;
+
+                editSession.setBlock(BlockVector3.at(x, y, z), palette.get(batch.stateAt(batchCursor)));
+                batchCursor--;
+                done++;
+                if (done % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() >= deadlineNanos)
+                    break;
+            }
+        }
+        blocksPlaced += done;
+        return done;
+    }
+
+    /**
+     * Loads a chunk through Paper's async chunk API and pins it, so it cannot
+     * unload again before the blocks in it are restored.
+     */
+    private CompletableFuture<Chunk> loadChunk(int chunkX, int chunkZ) {
+        Plugin plugin = CFM.getInstance();
+        return world.getChunkAtAsync(chunkX, chunkZ).thenApply(chunk -> {
+            if (!isDone() && ticketed.add(PackedPos.chunkKey(chunkX, chunkZ)))
+                chunk.addPluginChunkTicket(plugin);
+            return chunk;
+        });
+    }
+
+    private void releaseChunks() {
+        Plugin plugin = CFM.getInstance();
+        for (long key : ticketed.toArray()) {
+            world.removePluginChunkTicket((int) (key >> 32), (int) key, plugin);
+        }
+        ticketed.clear();
+    }
+
+    @Override
+    protected void onFinished() {
+        releaseChunks();
+        journal.discard();
+        // Even a partial rollback leaves the iteration no longer intact for /cfm refine
+        if (journal.getBuildId() > 0)
+            CFM.getInstance().getBuildDAO().updateBuildStatus(journal.getBuildId(), Build.BuildStatus.UNDONE);
+        Logger.info(String.format("Rolled back build for player %s: %d blocks in %.2fs over %d ticks",
+                getOwnerName(), blocksPlaced, getElapsedSeconds(), getTicks()));
+    }
+}
@@ -0,0 +1,121 @@
+package com.cfm.worldedit;
+
+import com.cfm.util.Logger;
+import lombok.Getter;
+import org.bukkit.World;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Block-writing work run by the {@link PlacementScheduler} on the main thread,
+ * a slice per tick within the tick budget.
+ */
+public abstract class ScheduledJob {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
+    @Getter
+    private final int id = NEXT_ID.getAndIncrement();
+    @Getter
+    private final UUID ownerId;
+    @Getter
+    private final String ownerName;
+    @Getter
+    protected final World world;
+    @Getter
+    private final CompletableFuture<ScheduledJob> completion = new CompletableFuture<>();
+
+    @Getter
+    protected int blocksPlaced;
+    @Getter
+    private int ticks;
+    private long startNanos;
+    private long endNanos;
+
+    protected ScheduledJob(UUID ownerId, String ownerName, World world) {
+        this.ownerId = ownerId;
+        this.ownerName = ownerName;
+        this.world = world;
+    }
+
+    public abstract int getTotalBlocks();
+
+    /**
+     * Short name of what the job does, for queue listings.
+     */
+    public abstract String getKind();
+
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    /**
+     * Blocks per second of wall-clock time since the job first ran.
+     */
+    public double getBlocksPerSecond() {
+        long end = isDone() ? endNanos : System.nanoTime();
+        if (startNanos == 0 || end <= startNanos)
+            return 0;
+        return blocksPlaced * 1_000_000_000.0 / (end - startNanos);
+    }
+
+    public double getElapsedSeconds() {
+        long end = isDone() ? endNanos : System.nanoTime();
+        return startNanos == 0 ? 0 : (end - startNanos) / 1_000_000_000.0;
+    }
+
+    /**
+     * Runs one slice of the job, failing it if the slice throws.
+     *
+     * @return the number of blocks written or updated
+     */
+    final int run(long deadlineNanos, int maxBlocks) {
+        if (startNanos == 0)
+            startNanos = System.nanoTime();
+        ticks++;
+        try {
+            return step(deadlineNanos, maxBlocks);
+        } catch (Exception e) {
+            Logger.error("Job #" + id + " failed", e);
+            fail(e);
+            return 0;
+        }
+    }
+
+    /**
+     * Advances the job until the deadline passes or {@code maxBlocks} units of
+     * work have been done.
+     *
+     * @return the number of blocks written or updated during this step
+     */
+    protected abstract int step(long deadlineNanos, int maxBlocks) throws Exception;
+
+    void cancel(String reason) {
+        fail(new IllegalStateException(reason));
+    }
+
+    protected void complete() {
+        if (isDone())
+            return;
+        endNanos = System.nanoTime();
+        onFinished();
+        completion.complete(this);
+    }
+
+    protected void fail(Throwable error) {
+        if (isDone())
+            return;
+        endNanos = System.nanoTime();
+        onFinished();
+        completion.completeExceptionally(error);
+    }
+
+    /**
+     * Called once when the job completes or fails, before the completion future
+     * is resolved.
+     */
+    protected void onFinished() {
+    }
+}
@@ -0,0 +1,466 @@
+package com.cfm.worldedit;
+
+/**
+ * Enumerates exactly the voxels a schema pattern covers, so compiling a shape
+ * costs time proportional to what it emits rather than to its bounding box.
+ * Rasterizers are immutable and allocate nothing per voxel; the same instance
+ * can be walked concurrently over disjoint clip boxes.
+ */
+public abstract class ShapeRasterizer {
+
+    /**
+     * Receives each covered voxel.
+     */
+    @FunctionalInterface
+    public interface VoxelSink {
+        void accept(int x, int y, int z);
+    }
+
+    protected final int minX, minY, minZ;
+    protected final int maxX, maxY, maxZ;
+
+    protected ShapeRasterizer(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * Rasterizer for a schema pattern over the two corners of an operation.
+     * Unknown patterns fill the whole box, as they always have.
+     */
+    public static ShapeRasterizer forPattern(String pattern, int x1, int y1, int z1, int x2, int y2, int z2) {
+        int minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+        int minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+        int minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
+        return switch (pattern) {
+            case "line" -> new Line(x1, y1, z1, x2, y2, z2);
+            case "hollow" -> new Cuboid(minX, minY, minZ, maxX, maxY, maxZ, true, true, true);
+            case "box" -> new Cuboid(minX, minY, minZ, maxX, maxY, maxZ, true, false, false);
+            case "sphere" -> new Ellipsoid(minX, minY, minZ, maxX, maxY, maxZ, false, false);
+            case "hollow_sphere" -> new Ellipsoid(minX, minY, minZ, maxX, maxY, maxZ, false, true);
+            case "dome" -> new Ellipsoid(minX, minY, minZ, maxX, maxY, maxZ, true, false);
+            case "hollow_dome" -> new Ellipsoid(minX, minY, minZ, maxX, maxY, maxZ, true, true);
+            case "cylinder" -> new Cylinder(minX, minY, minZ, maxX, maxY, maxZ, false);
+            case "hollow_cylinder" -> new Cylinder(minX, minY, minZ, maxX, maxY, maxZ, true);
+            case "pyramid" -> new Pyramid(minX, minY, minZ, maxX, maxY, maxZ, false);
+            case "hollow_pyramid" -> new Pyramid(minX, minY, minZ, maxX, maxY, maxZ, true);
+            default -> new Cuboid(minX, minY, minZ, maxX, maxY, maxZ, false, false, false);
+        };
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public int getMinZ() {
+        return minZ;
+    }
+
+    public int getMaxZ() {
+        return maxZ;
+    }
+
+    public long getBoundingVolume() {
+        return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+    }
+
+    /**
+     * Emits every covered voxel inside the inclusive clip box.
+     */
+    public abstract void rasterize(int clipMinX, int clipMinY, int clipMinZ, int clipMaxX, int clipMaxY,
+            int clipMaxZ, VoxelSink sink);
+
+    public void rasterize(VoxelSink sink) {
+        rasterize(minX, minY, minZ, maxX, maxY, maxZ, sink);
+    }
+
+    /**
+     * Number of voxels {@link #rasterize(VoxelSink)} emits, computed without
+     * visiting them.
+     */
+    public abstract long count();
+
+    /**
+     * Like {@link #count()}, but may stop as soon as more than {@code limit}
+     * voxels are found and return that partial count, so an oversized shape
+     * costs no more than one under the limit.
+     */
+    public long count(long limit) {
+        return count();
+    }
+
+    /**
+     * A straight 3D Bresenham line between the two corners, endpoints included.
+     */
+    static final class Line extends ShapeRasterizer {
+        private final int x1, y1, z1, x2, y2, z2;
+
+        Line(int x1, int y1, int z1, int x2, int y2, int z2) {
+            super(Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2), Math.max(x1, x2), Math.max(y1, y2),
+                    Math.max(z1, z2));
+            this.x1 = x1;
+            this.y1 = y1;
+            this.z1 = z1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.z2 = z2;
+        }
+
+        @Override
+        public long count() {
+            return Math.max(Math.abs(x2 - x1), Math.max(Math.abs(y2 - y1), Math.abs(z2 - z1))) + 1L;
+        }
+
+        @Override
+        public void rasterize(int clipMinX, int clipMinY, int clipMinZ, int clipMaxX, int clipMaxY, int clipMaxZ,
+                VoxelSink sink) {
+            int dx = Math.abs(x2 - x1), dy = Math.abs(y2 - y1), dz = Math.abs(z2 - z1);
+            int sx = Integer.signum(x2 - x1), sy = Integer.signum(y2 - y1), sz = Integer.signum(z2 - z1);
+            // Step along the dominant axis; the two error terms track the others
+            int steps = Math.max(dx, Math.max(dy, dz));
+            int errA, errB;
+            int x = x1, y = y1, z = z1;
+            if (steps == dx) {
+                errA = 2 * dy - dx;
+                errB = 2 * dz - dx;
+            } else if (steps == dy) {
+                errA = 2 * dx - dy;
+                errB = 2 * dz - dy;
+            } else {
+                errA = 2 * dx - dz;
+                errB = 2 * dy - dz;
+            }
+            for (int i = 0; i <= steps; i++) {
+                if (x >= clipMinX && x <= clipMaxX && y >= clipMinY && y <= clipMaxY && z >= clipMinZ
+                        && z <= clipMaxZ)
+                    sink.accept(x, y, z);
+                if (steps == dx) {
+                    if (errA > 0) {
+                        y += sy;
+                        errA -= 2 * dx;
+                    }
+                    if (errB > 0) {
+                        z += sz;
+                        errB -= 2 * dx;
+                    }
+                    errA += 2 * dy;
+                    errB += 2 * dz;
+                    x += sx;
+                } else if (steps == dy) {
+                    if (errA > 0) {
+                        x += sx;
+                        errA -= 2 * dy;
+                    }
+                    if (errB > 0) {
+                        z += sz;
+                        errB -= 2 * dy;
+                    }
+                    errA += 2 * dx;
+                    errB += 2 * dz;
+                    y += sy;
+                } else {
+                    if (errA > 0) {
+                        x += sx;
+                        errA -= 2 * dz;
+                    }
+                    if (errB > 0) {
+                        y += sy;
+                        errB -= 2 * dz;
+                    }
+                    errA += 2 * dx;
+                    errB += 2 * dy;
+                    z += sz;
+                }
+            }
+        }
+    }
+
+    /**
+     * Convex shapes described by one contiguous run of z per (x, y) column.
+     * Solid shapes emit each run; hollow ones emit only the cells with a face
+     * neighbour outside the shape, found by intersecting the run with those of
+     * the four neighbouring columns, so each column costs O(1) plus its output.
+     */
+    abstract static class ColumnShape extends ShapeRasterizer {
+        protected static final long EMPTY = span(1, 0);
+
+        protected final boolean hollow;
+        // Open ends count the column beyond minY/maxY as part of the shape, so
+        // a hollow tower or dome gets no floor (or roof)
+        protected final boolean openBottom;
+        protected final boolean openTop;
+
+        ColumnShape(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean hollow, boolean openBottom,
+                boolean openTop) {
+            super(minX, minY, minZ, maxX, maxY, maxZ);
+            this.hollow = hollow;
+            this.openBottom = openBottom;
+            this.openTop = openTop;
+        }
+
+        /**
+         * The z run of column (x, y) packed by {@link #span(int, int)}, or
+         * {@link #EMPTY}. Only called for columns inside the bounds.
+         */
+        protected abstract long columnSpan(int x, int y);
+
+        /**
+         * The y range, packed like a span, outside which every column of row
+         * {@code x} is empty. Lets walks skip the empty corners of the bounds.
+         */
+        protected long rowSpan(int x) {
+            return span(minY, maxY);
+        }
+
+        protected static long span(int lo, int hi) {
+            return ((long) lo << 32) | (hi & 0xFFFFFFFFL);
+        }
+
+        private static int lo(long span) {
+            return (int) (span >> 32);
+        }
+
+        private static int hi(long span) {
+            return (int) span;
+        }
+
+        private long neighbourSpan(int x, int y) {
+            if (x < minX || x > maxX)
+                return EMPTY;
+            if (y < minY)
+                return openBottom ? columnSpan(x, minY) : EMPTY;
+            if (y > maxY)
+                return openTop ? columnSpan(x, maxY) : EMPTY;
+            return columnSpan(x, y);
+        }
+
+        @Override
+        public void rasterize(int clipMinX, int clipMinY, int clipMinZ, int clipMaxX, int clipMaxY, int clipMaxZ,
+                VoxelSink sink) {
+            int fromX = Math.max(minX, clipMinX), toX = Math.min(maxX, clipMaxX);
+            int fromY = Math.max(minY, clipMinY), toY = Math.min(maxY, clipMaxY);
+            for (int x = fromX; x <= toX; x++) {
+                long rows = rowSpan(x);
+                for (int y = Math.max(fromY, lo(rows)); y <= Math.min(toY, hi(rows)); y++) {
+                    long own = columnSpan(x, y);
+                    int lo = lo(own), hi = hi(own);
+                    if (lo > hi)
+                        continue;
+                    if (!hollow) {
+                        emit(x, y, Math.max(lo, clipMinZ), Math.min(hi, clipMaxZ), sink);
+                        continue;
+                    }
+                    long inner = interior(x, y, lo, hi);
+                    int innerLo = lo(inner), innerHi = hi(inner);
+                    if (innerLo > innerHi) {
+                        emit(x, y, Math.max(lo, clipMinZ), Math.min(hi, clipMaxZ), sink);
+                    } else {
+                        emit(x, y, Math.max(lo, clipMinZ), Math.min(innerLo - 1, clipMaxZ), sink);
+                        emit(x, y, Math.max(innerHi + 1, clipMinZ), Math.min(hi, clipMaxZ), sink);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long count() {
+            return count(Long.MAX_VALUE);
+        }
+
+        @Override
+        public long count(long limit) {
+            long count = 0;
+            for (int x = minX; x <= maxX && count <= limit; x++) {
+                long rows = rowSpan(x);
+                for (int y = lo(rows); y <= hi(rows) && count <= limit; y++) {
+                    long own = columnSpan(x, y);
+                    int lo = lo(own), hi = hi(own);
+                    if (lo > hi)
+                        continue;
+                    count += hi - lo + 1;
+                    if (hollow) {
+                        long inner = interior(x, y, lo, hi);
+                        if (lo(inner) <= hi(inner))
+                            count -= hi(inner) - lo(inner) + 1;
+                    }
+                }
+            }
+            return count;
+        }
+
+        // Cells of the column whose six neighbours are all inside the shape
+        private long interior(int x, int y, int lo, int hi) {
+            long west = neighbourSpan(x - 1, y), east = neighbourSpan(x + 1, y);
+            long below = neighbourSpan(x, y - 1), above = neighbourSpan(x, y + 1);
+            int innerLo = Math.max(Math.max(lo + 1, lo(west)), Math.max(lo(east), Math.max(lo(below), lo(above))));
+            int innerHi = Math.min(Math.min(hi - 1, hi(west)), Math.min(hi(east), Math.min(hi(below), hi(above))));
+            return span(innerLo, innerHi);
+        }
+
+        private static void emit(int x, int y, int fromZ, int toZ, VoxelSink sink) {
+            for (int z = fromZ; z <= toZ; z++) {
+                sink.accept(x, y, z);
+            }
+        }
+    }
+
+    /**
+     * The full box, or its shell. {@code hollow} keeps the old meaning of four
+     * walls with no floor or ceiling; {@code box} is the closed shell.
+     */
+    static final class Cuboid extends ColumnShape {
+        private final long full;
+
+        Cuboid(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean hollow, boolean openBottom,
+                boolean openTop) {
+            super(minX, minY, minZ, maxX, maxY, maxZ, hollow, openBottom, openTop);
+            this.full = span(minZ, maxZ);
+        }
+
+        @Override
+        protected long columnSpan(int x, int y) {
+            return full;
+        }
+
+        @Override
+        public long count() {
+            long sizeX = maxX - minX + 1, sizeY = maxY - minY + 1, sizeZ = maxZ - minZ + 1;
+            if (!hollow)
+                return sizeX * sizeY * sizeZ;
+            long innerY = Math.max(0, sizeY - (openBottom ? 0 : 1) - (openTop ? 0 : 1));
+            return sizeX * sizeY * sizeZ - Math.max(0, sizeX - 2) * innerY * Math.max(0, sizeZ - 2);
+        }
+
+        @Override
+        public long count(long limit) {
+            return count();
+        }
+    }
+
+    /**
+     * Ellipsoid inscribed in the bounds. As a dome it is the upper half of an
+     * ellipsoid centred on the bottom face, with an open base when hollow.
+     */
+    static final class Ellipsoid extends ColumnShape {
+        private final double centerX, centerY, centerZ;
+        private final double radiusX, radiusY, radiusZ;
+
+        Ellipsoid(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean dome, boolean hollow) {
+            super(minX, minY, minZ, maxX, maxY, maxZ, hollow, dome, false);
+            this.centerX = (minX + maxX) / 2.0;
+            this.centerZ = (minZ + maxZ) / 2.0;
+            this.radiusX = (maxX - minX) / 2.0 + 0.5;
+            this.radiusZ = (maxZ - minZ) / 2.0 + 0.5;
+            if (dome) {
+                this.centerY = minY;
+                this.radiusY = maxY - minY + 0.5;
+            } else {
+                this.centerY = (minY + maxY) / 2.0;
+                this.radiusY = (maxY - minY) / 2.0 + 0.5;
+            }
+        }
+
+        @Override
+        protected long columnSpan(int x, int y) {
+            double dx = (x - centerX) / radiusX, dy = (y - centerY) / radiusY;
+            double rest = 1.0 - dx * dx - dy * dy;
+            if (rest < 0)
+                return EMPTY;
+            double half = radiusZ * Math.sqrt(rest);
+            int lo = Math.max(minZ, (int) Math.ceil(centerZ - half));
+            int hi = Math.min(maxZ, (int) Math.floor(centerZ + half));
+            return lo <= hi ? span(lo, hi) : EMPTY;
+        }
+
+        @Override
+        protected long rowSpan(int x) {
+            double dx = (x - centerX) / radiusX;
+            double rest = 1.0 - dx * dx;
+            if (rest < 0)
+                return EMPTY;
+            // One row of slack either side; columnSpan has the final say
+            double half = radiusY * Math.sqrt(rest);
+            return span(Math.max(minY, (int) Math.ceil(centerY - half) - 1),
+                    Math.min(maxY, (int) Math.floor(centerY + half) + 1));
+        }
+    }
+
+    /**
+     * Vertical cylinder with an elliptical cross-section inscribed in the x/z
+     * bounds. Hollow cylinders are open at both ends, like {@code hollow}.
+     */
+    static final class Cylinder extends ColumnShape {
+        private final double centerX, centerZ;
+        private final double radiusX, radiusZ;
+
+        Cylinder(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean hollow) {
+            super(minX, minY, minZ, maxX, maxY, maxZ, hollow, true, true);
+            this.centerX = (minX + maxX) / 2.0;
+            this.centerZ = (minZ + maxZ) / 2.0;
+            this.radiusX = (maxX - minX) / 2.0 + 0.5;
+            this.radiusZ = (maxZ - minZ) / 2.0 + 0.5;
+        }
+
+        @Override
+        protected long columnSpan(int x, int y) {
+            double dx = (x - centerX) / radiusX;
+            double rest = 1.0 - dx * dx;
+            if (rest < 0)
+                return EMPTY;
+            double half = radiusZ * Math.sqrt(rest);
+            int lo = Math.max(minZ, (int) Math.ceil(centerZ - half));
+            int hi = Math.min(maxZ, (int) Math.floor(centerZ + half));
+            return lo <= hi ? span(lo, hi) : EMPTY;
+        }
+    }
+
+    /**
+     * Stepped pyramid standing on the bottom face, each layer inset evenly so
+     * the top layer reaches the middle. Hollow pyramids have no base.
+     */
+    static final class Pyramid extends ColumnShape {
+        private final int sizeX, sizeZ, height;
+
+        Pyramid(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean hollow) {
+            super(minX, minY, minZ, maxX, maxY, maxZ, hollow, true, false);
+            this.sizeX = maxX - minX + 1;
+            this.sizeZ = maxZ - minZ + 1;
+            this.height = maxY - minY + 1;
+        }
+
+        @Override
+        protected long columnSpan(int x, int y) {
+            int layer = y - minY;
+            int insetX = (int) ((long) layer * sizeX / (2L * height));
+            int insetZ = (int) ((long) layer * sizeZ / (2L * height));
+            if (x < minX + insetX || x > maxX - insetX)
+                return EMPTY;
+            int lo = minZ + insetZ, hi = maxZ - insetZ;
+            return lo <= hi ? span(lo, hi) : EMPTY;
+        }
+
+        // Layers whose x inset still leaves this row in the pyramid
+        @Override
+        protected long rowSpan(int x) {
+            long edge = Math.min(x - minX, maxX - x);
+            long topLayer = ((edge + 1) * 2L * height - 1) / sizeX;
+            return span(minY, (int) Math.min(maxY, minY + topLayer));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.cfm.worldedit;
+
+import com.cfm.CFM;
+import com.cfm.model.Build;
+import com.cfm.schema.VoxelSchemaParser;
+import com.cfm.util.Logger;
+import com.cfm.util.LongHashSet;
+import com.sk89q.worldedit.math.BlockVector3;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Places a build while its operations are still arriving, such as from a
+ * streamed AI response. Operations are gathered into segments, and each
+ * segment is compiled and queued as a {@link PlacementJob} as soon as it is
+ * full or has waited long enough, so the first blocks go down within
+ * seconds. Segments run in order in the owner's lane, so a later operation
+ * still overwrites an earlier one, and they share one undo journal, so
+ * {@code /cfm undo} rolls back the whole build.
+ * <p>
+ * Operations are fed from one thread at a time, in build order.
+ */
+public class StreamingPlacement {
+
+    private final Player player;
+    private final BlockVector3 origin;
+    private final BuildRandom random;
+    private final int segmentSize;
+    private final long segmentNanos;
+    private final UndoJournal journal;
+    // Chunks touched by every segment so far, for the per-build chunk limit
+    private final LongHashSet chunks = new LongHashSet();
+    private final List<PlacementJob> jobs = new ArrayList<>();
+    @Getter
+    private final CompletableFuture<StreamingPlacement> completion = new CompletableFuture<>();
+    private final long startNanos = System.nanoTime();
+
+    private List<VoxelSchemaParser.BuildOperation> segment = new ArrayList<>();
+    private long segmentStart;
+    // Flushes a partial segment once it has waited segment_ms, even if no operation follows
+    private BukkitTask flushTimer;
+    // Index of the segment's first operation within the whole build
+    private int segmentIndex;
+    private long estimatedBlocks;
+    @Getter
+    private PlacementScheduler.Admission admission;
+    // Why the rest of the build was dropped, or null while it is still being placed
+    @Getter
+    private String rejection;
+    private boolean finished;
+    private long endNanos;
+    // Build row of the whole response, known only once it is in; 0 if it is not a build
+    private int buildId;
+
+    public StreamingPlacement(Player player, BlockVector3 origin, BuildRandom random) {
+        this.player = player;
+        this.origin = origin;
+        this.random = random;
+        this.segmentSize = Math.max(1, CFM.getInstance().getConfig().getInt("build.streaming.segment_size", 256));
+        this.segmentNanos = Math.max(0, CFM.getInstance().getConfig().getLong("build.streaming.segment_ms", 1000))
+                * 1_000_000L;
+        this.journal = CFM.getInstance().getUndoManager().newJournal(player.getUniqueId(), player.getName(),
+                player.getWorld());
+    }
+
+    /**
+     * Adds the next operation, queueing the current segment if it is due.
+     * Operations after a rejection are dropped.
+     */
+    public synchronized void accept(VoxelSchemaParser.BuildOperation operation) {
+        if (finished || rejection != null)
+            return;
+        if (segment.isEmpty())
+            segmentStart = System.nanoTime();
+        segment.add(operation);
+        if (segment.size() >= segmentSize || System.nanoTime() - segmentStart >= segmentNanos) {
+            flush();
+        } else if (flushTimer == null) {
+            armFlushTimer();
+        }
+    }
+
+    /**
+     * Sets the build row whose status follows this placement. Must be called
+     * before {@link #finish}.
+     */
+    public synchronized void setBuildId(int buildId) {
+        this.buildId = buildId;
+    }
+
+    /**
+     * Queues whatever is left once the last operation is in. The completion
+     * future resolves when every queued segment is placed.
+     */
+    public synchronized void finish() {
+        if (finished)
+            return;
+        cancelFlushTimer();
+        if (rejection == null && !segment.isEmpty())
+            flush();
+        finished = true;
+
+        CompletableFuture.allOf(jobs.stream().map(ScheduledJob::getCompletion).toArray(CompletableFuture[]::new))
+                .whenComplete((done, error) -> {
+                    endNanos = System.nanoTime();
+                    if (buildId > 0) {
+                        // A build cut short is not something /cfm refine may diff against
+                        CFM.getInstance().getBuildDAO().updateBuildStatus(buildId, error == null && rejection == null
+                                ? Build.BuildStatus.COMPLETED : Build.BuildStatus.FAILED);
+                        journal.setBuildId(buildId);
+                    }
+                    // Partially placed builds can be rolled back too
+                    CFM.getInstance().getUndoManager().push(journal);
+                    Logger.info(String.format("Streamed build placed for player %s: %d blocks in %d segment(s), %.2fs",
+                            player.getName(), getBlocksPlaced(), jobs.size(), getElapsedSeconds()));
+                    if (error != null) {
+                        completion.completeExceptionally(error);
+                    } else {
+                        completion.complete(this);
+                    }
+                });
+    }
+
+    /**
+     * Whether any operation has been queued for placement.
+     */
+    public synchronized boolean hasStarted() {
+        return !jobs.isEmpty();
+    }
+
+    public synchronized int getSegmentCount() {
+        return jobs.size();
+    }
+
+    public synchronized int getTotalBlocks() {
+        return jobs.stream().mapToInt(PlacementJob::getTotalBlocks).sum();
+    }
+
+    public synchronized int getBlocksPlaced() {
+        return jobs.stream().mapToInt(PlacementJob::getBlocksPlaced).sum();
+    }
+
+    /**
+     * Seconds from the first operation being accepted until the last segment
+     * was placed, generation time included.
+     */
+    public double getElapsedSeconds() {
+        long end = completion.isDone() ? endNanos : System.nanoTime();
+        return (end - startNanos) / 1_000_000_000.0;
+    }
+
+    private void armFlushTimer() {
+        long waitNanos = segmentNanos - (System.nanoTime() - segmentStart);
+        long ticks = Math.max(1, (TimeUnit.NANOSECONDS.toMillis(waitNanos) + 49) / 50);
+        flushTimer = Bukkit.getScheduler().runTaskLaterAsynchronously(CFM.getInstance(), this::flushIfDue, ticks);
+    }
+
+    private void cancelFlushTimer() {
+        if (flushTimer != null) {
+            flushTimer.cancel();
+            flushTimer = null;
+        }
+    }
+
+    /**
+     * Flushes the segment from the timer if the model has gone quiet mid-segment.
+     */
+    private synchronized void flushIfDue() {
+        flushTimer = null;
+        if (finished || rejection != null || segment.isEmpty())
+            return;
+        // Ticks can run a little early or late; a segment that is not due yet is checked again
+        if (System.nanoTime() - segmentStart >= segmentNanos) {
+            flush();
+        } else {
+            armFlushTimer();
+        }
+    }
+
+    private void flush() {
+        cancelFlushTimer();
+        List<VoxelSchemaParser.BuildOperation> operations = segment;
+        int firstIndex = segmentIndex;
+        segment = new ArrayList<>();
+        segmentIndex += operations.size();
+
+        // Per-build limits apply to everything streamed so far, not just this segment
+        BuildCostEstimator.Estimate estimate = BuildCostEstimator.estimate(operations, origin, chunks, estimatedBlocks);
+        estimatedBlocks += estimate.getBlocks();
+        PlacementScheduler.Admission check = CFM.getInstance().getPlacementScheduler().checkAdmission(
+                player.getUniqueId(), new BuildCostEstimator.Estimate(estimatedBlocks, estimate.getChunks()));
+        if (check.getDecision() == PlacementScheduler.Admission.Decision.REJECT) {
+            rejection = check.getReason();
+            Logger.debug("Stopped streamed build for " + player.getName() + " after " + firstIndex
+                    + " operations: " + rejection);
+            return;
+        }
+        if (admission == null)
+            admission = check;
+
+        PlacementJob job = new PlacementJob(player, BuildCompiler.compile(operations, random, firstIndex), origin,
+                journal);
+        job.setAdmission(check);
+        jobs.add(job);
+        CFM.getInstance().getPlacementScheduler().submit(job);
+        Logger.debug("Queued streamed segment #" + jobs.size() + " as job #" + job.getId() + " ("
+                + operations.size() + " operations, " + job.getTotalBlocks() + " blocks) for " + player.getName());
+    }
+}
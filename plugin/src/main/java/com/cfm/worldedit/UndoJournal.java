@@ -0,0 +1,250 @@
+package com.cfm.worldedit;
+
+import com.cfm.util.Logger;
+import com.cfm.util.LongHashSet;
+import com.sk89q.worldedit.world.block.BlockState;
+import lombok.Getter;
+import org.bukkit.World;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * The block states a build overwrote, in the order it overwrote them. Stored
+ * as a palette of distinct states plus packed position / palette index pairs
+ * (12 bytes per block). Once more than {@code memoryRecords} entries pile up
+ * they are appended to a file on a background thread, so even very large
+ * builds keep only a bounded tail in memory.
+ */
+public class UndoJournal {
+
+    private static final int RECORD_BYTES = Long.BYTES + Integer.BYTES;
+    // Records read back from disk per batch during rollback
+    private static final int READ_BATCH = 4096;
+
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CFM-Undo-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Getter
+    private final UUID ownerId;
+    @Getter
+    private final String ownerName;
+    @Getter
+    private final World world;
+    @Getter
+    private final BlockPalette palette = new BlockPalette();
+    private final File file;
+    private final int memoryRecords;
+    // Build row whose placement this journal undoes, or 0
+    @Getter
+    private volatile int buildId;
+
+    private VoxelBuffer tail;
+    private long spilledRecords;
+    // Chain of pending appends; reads wait on it so they never see a partial file
+    private CompletableFuture<Void> writes = CompletableFuture.completedFuture(null);
+
+    UndoJournal(UUID ownerId, String ownerName, World world, File file, int memoryRecords) {
+        this.ownerId = ownerId;
+        this.ownerName = ownerName;
+        this.world = world;
+        this.file = file;
+        this.memoryRecords = Math.max(1, memoryRecords);
+        this.tail = new VoxelBuffer(palette, Math.min(this.memoryRecords, 1024));
+    }
+
+    /**
+     * Records the state a position held before it is overwritten. Main thread only.
+     */
+    void record(long position, BlockState previous) {
+        tail.add(position, palette.indexOf(previous));
+        if (tail.size() >= memoryRecords)
+            spill();
+    }
+
+    /**
+     * Records a batch of previous states at once, as if each went through
+     * {@link #record}. The batch must use this journal's palette; it goes
+     * straight to the spill file without being copied. Main thread only.
+     */
+    void recordAll(VoxelBuffer previous) {
+        if (previous.isEmpty())
+            return;
+        // Whatever was recorded before goes to the file first, keeping the order
+        if (!tail.isEmpty())
+            spill();
+        spilledRecords += previous.size();
+        writes = writes.thenRunAsync(() -> append(previous), IO);
+    }
+
+    /**
+     * Runs {@code task} on the journal thread, for building records off the
+     * main thread.
+     */
+    static <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, IO);
+    }
+
+    void setBuildId(int buildId) {
+        this.buildId = buildId;
+    }
+
+    public long size() {
+        return spilledRecords + tail.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Bytes held on the heap by the in-memory tail.
+     */
+    public long getMemoryBytes() {
+        return (long) tail.size() * RECORD_BYTES;
+    }
+
+    public long getSpilledRecords() {
+        return spilledRecords;
+    }
+
+    /**
+     * Adds the state each of {@code positions} held before this journal first
+     * overwrote it, unless {@code states} already has one. The journal must
+     * be finished; spilled records are read from disk, so keep this off the
+     * main thread.
+     */
+    void collectFirstStates(LongHashSet positions, Map<Long, BlockState> states) {
+        writes.join();
+        if (spilledRecords > 0) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                for (long i = 0; i < spilledRecords; i++) {
+                    long position = in.readLong();
+                    int state = in.readInt();
+                    if (positions.contains(position))
+                        states.putIfAbsent(position, palette.get(state));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read undo journal " + file.getName(), e);
+            }
+        }
+        for (int i = 0; i < tail.size(); i++) {
+            if (positions.contains(tail.positionAt(i)))
+                states.putIfAbsent(tail.positionAt(i), palette.get(tail.stateAt(i)));
+        }
+    }
+
+    /**
+     * Deletes the spill file once every pending write is done.
+     */
+    void discard() {
+        writes.whenCompleteAsync((ignored, error) -> {
+            if (file.exists() && !file.delete())
+                Logger.warn("Could not delete undo journal " + file.getName());
+        }, IO);
+    }
+
+    /**
+     * Reads the journal newest entry first. The journal must not be recorded
+     * into once a reader exists.
+     */
+    Reader reverseReader() {
+        return new Reader();
+    }
+
+    private void spill() {
+        VoxelBuffer full = tail;
+        tail = new VoxelBuffer(palette, Math.min(memoryRecords, 1024));
+        spilledRecords += full.size();
+        writes = writes.thenRunAsync(() -> append(full), IO);
+    }
+
+    private void append(VoxelBuffer records) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16))) {
+            for (int i = 0; i < records.size(); i++) {
+                out.writeLong(records.positionAt(i));
+                out.writeInt(records.stateAt(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write undo journal " + file.getName(), e);
+        }
+    }
+
+    private VoxelBuffer readRange(long fromRecord, int count) {
+        byte[] bytes = new byte[count * RECORD_BYTES];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(fromRecord * RECORD_BYTES);
+            in.readFully(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read undo journal " + file.getName(), e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        VoxelBuffer records = new VoxelBuffer(palette, count);
+        for (int i = 0; i < count; i++) {
+            records.add(buffer.getLong(), buffer.getInt());
+        }
+        return records;
+    }
+
+    /**
+     * Hands out the journal in batches, newest batch first: the in-memory tail,
+     * then the spill file from its end backwards. Disk batches are read one
+     * ahead on the IO thread so the main thread never waits on the file.
+     */
+    final class Reader {
+        private boolean tailServed;
+        private long fileCursor = spilledRecords;
+        private CompletableFuture<VoxelBuffer> next;
+
+        /**
+         * The next batch, to be applied from its last entry to its first, or
+         * null if it is still being read from disk.
+         */
+        VoxelBuffer poll() {
+            if (!tailServed) {
+                tailServed = true;
+                prefetch();
+                return tail;
+            }
+            if (next == null || !next.isDone())
+                return null;
+            VoxelBuffer batch = next.join();
+            next = null;
+            prefetch();
+            return batch;
+        }
+
+        boolean isExhausted() {
+            return tailServed && next == null && fileCursor == 0;
+        }
+
+        private void prefetch() {
+            if (next != null || fileCursor == 0)
+                return;
+            int count = (int) Math.min(READ_BATCH, fileCursor);
+            long from = fileCursor - count;
+            fileCursor = from;
+            next = writes.thenApplyAsync(ignored -> readRange(from, count), IO);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.cfm.worldedit;
+
+import com.cfm.CFM;
+import com.cfm.util.Logger;
+import com.cfm.util.LongHashSet;
+import com.sk89q.worldedit.world.block.BlockState;
+import org.bukkit.World;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-player history of {@link UndoJournal}s for finished builds, newest last.
+ * Journals only live for the session: spill files are wiped on startup.
+ */
+public class UndoManager {
+
+    private final Map<UUID, Deque<UndoJournal>> history = new HashMap<>();
+    private final File directory;
+    private final AtomicLong nextFile = new AtomicLong();
+
+    private int maxHistory;
+    private int memoryRecords;
+
+    public UndoManager() {
+        this.directory = new File(CFM.getInstance().getDataFolder(), "undo");
+        loadSettings();
+        clearDirectory();
+    }
+
+    public void loadSettings() {
+        this.maxHistory = Math.max(1, CFM.getInstance().getConfig().getInt("build.undo.max_history", 5));
+        this.memoryRecords = Math.max(1024, CFM.getInstance().getConfig().getInt("build.undo.memory_records", 65536));
+    }
+
+    UndoJournal newJournal(UUID ownerId, String ownerName, World world) {
+        File file = new File(directory, ownerId + "-" + nextFile.incrementAndGet() + ".journal");
+        return new UndoJournal(ownerId, ownerName, world, file, memoryRecords);
+    }
+
+    /**
+     * Adds a finished build's journal, dropping the owner's oldest journal once
+     * the history is full.
+     */
+    synchronized void push(UndoJournal journal) {
+        if (journal.isEmpty()) {
+            journal.discard();
+            return;
+        }
+        Deque<UndoJournal> journals = history.computeIfAbsent(journal.getOwnerId(), id -> new ArrayDeque<>());
+        journals.addLast(journal);
+        while (journals.size() > maxHistory) {
+            journals.removeFirst().discard();
+        }
+    }
+
+    /**
+     * The state each of {@code positions} held before the oldest placement of
+     * {@code buildIds} still in the owner's history wrote it. Positions none
+     * of them wrote, or whose journal was dropped from the history, are left
+     * out. Reads spilled journals from disk, so keep this off the main thread.
+     */
+    public Map<Long, BlockState> findOriginalStates(UUID ownerId, Set<Integer> buildIds, LongHashSet positions) {
+        List<UndoJournal> journals;
+        synchronized (this) {
+            Deque<UndoJournal> all = history.get(ownerId);
+            journals = all == null ? List.of()
+                    : all.stream().filter(journal -> buildIds.contains(journal.getBuildId())).toList();
+        }
+        Map<Long, BlockState> states = new HashMap<>();
+        // Oldest first: the first record of a position is what was there before any of them
+        for (UndoJournal journal : journals) {
+            try {
+                journal.collectFirstStates(positions, states);
+            } catch (RuntimeException e) {
+                // Dropped from the history and discarded meanwhile
+                Logger.warn("Could not read undo journal: " + e.getMessage());
+            }
+        }
+        return states;
+    }
+
+    public synchronized int getHistorySize(UUID ownerId) {
+        Deque<UndoJournal> journals = history.get(ownerId);
+        return journals == null ? 0 : journals.size();
+    }
+
+    /**
+     * Rolls back the owner's most recent build. Safe to call from any thread.
+     *
+     * @return the queued rollback, or null if there is nothing to undo
+     */
+    public RollbackJob undo(UUID ownerId) {
+        UndoJournal journal;
+        synchronized (this) {
+            Deque<UndoJournal> journals = history.get(ownerId);
+            journal = journals == null ? null : journals.pollLast();
+        }
+        if (journal == null)
+            return null;
+        RollbackJob job = new RollbackJob(journal);
+        CFM.getInstance().getPlacementScheduler().submit(job);
+        Logger.debug("Queued rollback job #" + job.getId() + " (" + journal.size() + " blocks, "
+                + journal.getSpilledRecords() + " on disk) for " + journal.getOwnerName());
+        return job;
+    }
+
+    public synchronized void clear() {
+        for (Deque<UndoJournal> journals : history.values()) {
+            journals.forEach(UndoJournal::discard);
+        }
+        history.clear();
+    }
+
+    private void clearDirectory() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Logger.warn("Could not create undo directory " + directory);
+            return;
+        }
+        File[] stale = directory.listFiles((dir, name) -> name.endsWith(".journal"));
+        if (stale == null)
+            return;
+        for (File file : stale) {
+            if (!file.delete())
+                Logger.warn("Could not delete stale undo journal " + file.getName());
+        }
+    }
+}
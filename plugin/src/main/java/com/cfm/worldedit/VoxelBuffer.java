@@ -0,0 +1,61 @@
+package com.cfm.worldedit;
+
+import com.cfm.util.PackedPos;
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of voxels stored as two parallel primitive arrays: packed
+ * positions ({@link PackedPos}) and palette indices. Roughly 12 bytes per
+ * voxel, with no per-block objects.
+ */
+public class VoxelBuffer {
+
+    @Getter
+    private final BlockPalette palette;
+    private long[] positions;
+    private int[] states;
+    private int size;
+
+    public VoxelBuffer(BlockPalette palette) {
+        this(palette, 64);
+    }
+
+    public VoxelBuffer(BlockPalette palette, int initialCapacity) {
+        this.palette = palette;
+        this.positions = new long[Math.max(1, initialCapacity)];
+        this.states = new int[positions.length];
+    }
+
+    public void add(int x, int y, int z, int state) {
+        add(PackedPos.pack(x, y, z), state);
+    }
+
+    public void add(long position, int state) {
+        if (size == positions.length) {
+            int capacity = positions.length + (positions.length >> 1) + 1;
+            positions = Arrays.copyOf(positions, capacity);
+            states = Arrays.copyOf(states, capacity);
+        }
+        positions[size] = position;
+        states[size] = state;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long positionAt(int index) {
+        return positions[index];
+    }
+
+    public int stateAt(int index) {
+        return states[index];
+    }
+}
@@ -0,0 +1,173 @@
+package com.cfm.worldedit;
+
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.world.block.BlockState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A palette string such as {@code 80%minecraft:oak_planks,20%minecraft:spruce_planks}
+ * compiled into a Walker/Vose alias table over primitive arrays, so sampling
+ * costs one table lookup regardless of the number of entries.
+ */
+class WeightedPalette {
+
+    // Palette indices (into the build's BlockPalette) of each entry
+    private final int[] states;
+    private final double[] probability;
+    private final int[] alias;
+    private final boolean doors;
+
+    public WeightedPalette(String input, BlockPalette blockPalette) {
+        int[] parsedStates = new int[0];
+        double[] weights = new double[0];
+
+        if (input != null && !input.isEmpty()) {
+            List<String> parts = splitEntries(input);
+            parsedStates = new int[parts.size()];
+            weights = new double[parts.size()];
+            int count = 0;
+            for (String part : parts) {
+                part = part.trim();
+                double weight = 1.0;
+                String blockData = part;
+                if (part.contains("%")) {
+                    try {
+                        int percentIdx = part.indexOf("%");
+                        weight = Double.parseDouble(part.substring(0, percentIdx));
+                        blockData = part.substring(percentIdx + 1);
+                    } catch (Exception e) {
+                    }
+                }
+                BlockState state = BlockStateCache.get(blockData); // Shared cache over the robust parser
+                if (state != null) {
+                    parsedStates[count] = blockPalette.indexOf(state);
+                    weights[count] = Math.max(0, weight);
+                    count++;
+                }
+            }
+            parsedStates = Arrays.copyOf(parsedStates, count);
+            weights = Arrays.copyOf(weights, count);
+        }
+
+        this.states = parsedStates;
+        this.probability = new double[states.length];
+        this.alias = new int[states.length];
+        buildAliasTable(weights);
+
+        // Resolves upper door halves now, so their palette indices do not depend
+        // on which compile thread first asks for them
+        boolean anyDoor = false;
+        for (int state : states) {
+            anyDoor |= blockPalette.upperDoorIndex(state) >= 0;
+        }
+        this.doors = anyDoor;
+    }
+
+    /**
+     * Splits the palette on the commas between entries, leaving the ones that
+     * separate properties inside {@code [...]} alone.
+     */
+    private static List<String> splitEntries(String input) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0, start = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth = Math.max(0, depth - 1);
+            } else if (c == ',' && depth == 0) {
+                parts.add(input.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(input.substring(start));
+        return parts;
+    }
+
+    public boolean isEmpty() {
+        return states.length == 0;
+    }
+
+    /**
+     * Picks a palette index using the given random bits: the high half selects
+     * a column, the low half flips the biased coin within it.
+     */
+    public int sample(long bits) {
+        if (states.length == 1)
+            return states[0];
+        int column = (int) (((bits >>> 32) * states.length) >>> 32);
+        double coin = (bits & 0xFFFFFFFFL) * 0x1.0p-32;
+        return coin < probability[column] ? states[column] : states[alias[column]];
+    }
+
+    public boolean isSingleState() {
+        return states.length == 1;
+    }
+
+    /**
+     * True if any entry is the lower half of a door.
+     */
+    public boolean hasDoors() {
+        return doors;
+    }
+
+    /**
+     * True if any entry is a lower door half or a fence/pane/wall, which get
+     * extra blocks or connection fixes after being placed.
+     */
+    public boolean needsPerVoxelHandling(BlockPalette blockPalette) {
+        if (doors)
+            return true;
+        for (int state : states) {
+            if (BlockPlacementEngine.isConnectable(BukkitAdapter.adapt(blockPalette.get(state).getBlockType())))
+                return true;
+        }
+        return false;
+    }
+
+    // Vose's method: split columns into under- and over-full, then pair them up
+    private void buildAliasTable(double[] weights) {
+        int n = weights.length;
+        if (n == 0)
+            return;
+
+        double total = 0;
+        for (double weight : weights)
+            total += weight;
+
+        double[] scaled = new double[n];
+        for (int i = 0; i < n; i++)
+            scaled[i] = total > 0 ? weights[i] * n / total : 1.0;
+
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0, largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (scaled[i] < 1.0)
+                small[smallCount++] = i;
+            else
+                large[largeCount++] = i;
+        }
+
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0)
+                small[smallCount++] = more;
+            else
+                large[largeCount++] = more;
+        }
+        // Whatever is left is full up to rounding error
+        while (largeCount > 0)
+            probability[large[--largeCount]] = 1.0;
+        while (smallCount > 0)
+            probability[small[--smallCount]] = 1.0;
+    }
+}
@@ -11,6 +11,9 @@ import org.bukkit.entity.Player;
 
 public class WorldEditSelectionHelper {
 
+    // Largest region read at once, by /cfm parse and /api/export
+    public static final int MAX_SELECTION_VOLUME = 1000000;
+
     public static Region getPlayerSelection(Player player) {
         com.sk89q.worldedit.entity.Player wePlayer = BukkitAdapter.adapt(player);
         SessionManager manager = WorldEdit.getInstance().getSessionManager();
@@ -31,8 +34,7 @@ public class WorldEditSelectionHelper {
 
         // Ensure it's not too large to prevent server crash
         long volume = region.getVolume();
-        int maxBlocks = 1000000; // 1 million blocks cap for now
-        if (volume > maxBlocks) {
+        if (volume > MAX_SELECTION_VOLUME) {
             Logger.warn("Player " + player.getName() + " selection is too large (" + volume + " blocks).");
             return false;
         }